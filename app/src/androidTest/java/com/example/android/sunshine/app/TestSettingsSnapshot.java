@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mUnitsKey, mUnits).commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsUnits() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        // Changes made off the main thread reach the snapshot through the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).isMetric();
+            }
+        }.run();
+        assertTrue(Utility.isMetric(mContext));
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial)).commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).isMetric();
+            }
+        }.run();
+        assertFalse(Utility.isMetric(mContext));
+    }
+
+    public void testRefreshSeesTheChangeStraightAway() {
+        SettingsSnapshot.get(mContext);
+        // The main thread hasn't been told about this yet
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial)).commit();
+        assertFalse(SettingsSnapshot.refresh(mContext).isMetric());
+        assertFalse(SettingsSnapshot.get(mContext).isMetric());
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        assertTrue(SettingsSnapshot.refresh(mContext).isMetric());
+    }
+
+    public void testUnrelatedChangesKeepTheSnapshot() throws Exception {
+        SettingsSnapshot snapshot = SettingsSnapshot.get(mContext);
+        mPrefs.edit().putBoolean("test_unrelated", true).commit();
+        mPrefs.edit().remove("test_unrelated").commit();
+        // Give the main thread time to hear about both
+        Thread.sleep(200);
+        assertSame(snapshot, SettingsSnapshot.get(mContext));
+    }
+}
@@ -18,9 +18,12 @@ package com.example.android.sunshine.app.data;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class TestDb extends AndroidTestCase {
 
@@ -121,6 +124,66 @@ public class TestDb extends AndroidTestCase {
         where you can use the "createWeatherValues" function.  You can
         also make use of the validateCurrentRecord function from within TestUtilities.
      */
+    /*
+        With write-ahead logging, a reader sees the last committed data straight away instead of
+        waiting for a writer's transaction to end.
+     */
+    public void testReadDuringLongWrite() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // The helper only turns WAL on itself from Jelly Bean
+            return;
+        }
+        final long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: The database is not in write-ahead logging mode",
+                db.isWriteAheadLoggingEnabled());
+
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        final boolean[] readDuringWrite = new boolean[1];
+        final Throwable[] writerError = new Throwable[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+                    db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+                    writeStarted.countDown();
+                    // Hold the transaction open until the reader is done, or give up
+                    readDuringWrite[0] = readDone.await(5, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (Throwable t) {
+                    writerError[0] = t;
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+        // The insert isn't committed yet, so the reader must not see it
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        readDone.countDown();
+        writer.join();
+
+        if (writerError[0] != null) {
+            throw writerError[0];
+        }
+        assertTrue("Error: The read waited for the write transaction to finish", readDuringWrite[0]);
+        assertEquals(0, count);
+
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
     public void testWeatherTable() {
         // First insert the location, and then use the locationRowId to insert
         // the weather. Make sure to cover as many failure cases as you can.
@@ -0,0 +1,208 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Each migration step is run against a database built with the schema of its own version, and
+    has to end up with the same schema as a freshly created database of the next version, with
+    the rows it started with.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String MIGRATED_DATABASE_NAME = "migration_test.db";
+    private static final String FRESH_DATABASE_NAME = "migration_test_fresh.db";
+
+    // The schema as it was at version 2
+    private static final String[] SCHEMA_V2 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    // The schema as it was at version 3
+    private static final String[] SCHEMA_V3 = {
+            SCHEMA_V2[0],
+            SCHEMA_V2[1],
+            "CREATE INDEX weather_location_date_idx ON weather (location_id, date);"
+    };
+
+    // The schema as it was at version 4
+    private static final String[] SCHEMA_V4 = {
+            SCHEMA_V3[0],
+            SCHEMA_V3[1],
+            SCHEMA_V3[2],
+            "CREATE TABLE hourly (location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, temp REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "PRIMARY KEY (location_id, date) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionSinceTwoCanBeMigrated() {
+        assertTrue("Error: A migration step is missing for some version before "
+                        + WeatherDbHelper.DATABASE_VERSION,
+                WeatherDbMigrations.canMigrate(2, WeatherDbHelper.DATABASE_VERSION));
+        assertFalse(WeatherDbMigrations.canMigrate(1, WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testMigrationFrom2() {
+        SQLiteDatabase db = createDatabase(MIGRATED_DATABASE_NAME, SCHEMA_V2, 2);
+        long weatherRowId = insertTestRows(db);
+
+        WeatherDbMigrations.getMigration(2).migrate(db);
+
+        assertTrue(hasIndex(db, "weather_location_date_idx"));
+        assertRowKept(db, weatherRowId);
+        db.close();
+    }
+
+    public void testMigrationFrom3() {
+        SQLiteDatabase db = createDatabase(MIGRATED_DATABASE_NAME, SCHEMA_V3, 3);
+        long weatherRowId = insertTestRows(db);
+
+        WeatherDbMigrations.getMigration(3).migrate(db);
+
+        Cursor cursor = db.query(WeatherContract.HourlyEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        assertRowKept(db, weatherRowId);
+        db.close();
+    }
+
+    public void testMigrationFrom4() {
+        SQLiteDatabase db = createDatabase(MIGRATED_DATABASE_NAME, SCHEMA_V4, 4);
+        long weatherRowId = insertTestRows(db);
+
+        WeatherDbMigrations.getMigration(4).migrate(db);
+
+        Cursor cursor = db.query(WeatherContract.HistoryEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        assertRowKept(db, weatherRowId);
+        db.close();
+    }
+
+    public void testUpgradeKeepsForecast() {
+        SQLiteDatabase db = createDatabase(WeatherDbHelper.DATABASE_NAME, SCHEMA_V2, 2);
+        long weatherRowId = insertTestRows(db);
+        db.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertRowKept(db, weatherRowId);
+
+        // and the result is the same as a database that was created at the current version
+        SQLiteDatabase fresh = createFreshDatabase();
+        assertEquals(describeSchema(fresh), describeSchema(db));
+        fresh.close();
+        db.close();
+    }
+
+    public void testUpgradeWithoutPathRecreates() {
+        SQLiteDatabase db = createDatabase(WeatherDbHelper.DATABASE_NAME, SCHEMA_V2, 1);
+        insertTestRows(db);
+        db.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    private SQLiteDatabase createDatabase(String name, String[] schema, int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+        for (String statement : schema) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    private SQLiteDatabase createFreshDatabase() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(FRESH_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        new WeatherDbHelper(mContext).onCreate(db);
+        return db;
+    }
+
+    private long insertTestRows(SQLiteDatabase db) {
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+        assertTrue(weatherRowId != -1);
+        return weatherRowId;
+    }
+
+    private void assertRowKept(SQLiteDatabase db, long weatherRowId) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                WeatherContract.WeatherEntry._ID + " = ?", new String[]{Long.toString(weatherRowId)},
+                null, null, null);
+        assertTrue("Error: The migration lost the cached forecast", cursor.moveToFirst());
+        ContentValues expected = TestUtilities.createWeatherValues(
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+        TestUtilities.validateCurrentRecord("Error validating migrated row", cursor, expected);
+        cursor.close();
+    }
+
+    private static boolean hasIndex(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{name});
+        boolean found = cursor.moveToFirst();
+        cursor.close();
+        return found;
+    }
+
+    /*
+        Tables with their columns, and indices, ignoring how the SQL that made them was written.
+     */
+    private static Set<String> describeSchema(SQLiteDatabase db) {
+        Set<String> schema = new HashSet<String>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            schema.add(type + ":" + name);
+            if ("table".equals(type)) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    schema.add("column:" + name + "." + columns.getString(columns.getColumnIndex("name"))
+                            + " " + columns.getString(columns.getColumnIndex("type")));
+                }
+                columns.close();
+            }
+        }
+        objects.close();
+        return schema;
+    }
+}
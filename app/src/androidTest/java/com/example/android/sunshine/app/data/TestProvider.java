@@ -16,6 +16,9 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -27,9 +30,12 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -79,6 +85,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -183,6 +199,12 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/upsert
+        type = mContext.getContentResolver().getType(LocationEntry.CONTENT_UPSERT_URI);
+        // vnd.android.cursor.item/com.example.android.sunshine.app/location
+        assertEquals("Error: the LocationEntry CONTENT_UPSERT_URI should return LocationEntry.CONTENT_ITEM_TYPE",
+                LocationEntry.CONTENT_ITEM_TYPE, type);
     }
 
     /*
@@ -509,4 +531,468 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Bulk inserting a day that is already stored replaces it, like a single insert does.
+     */
+    public void testBulkInsertReplacesExistingDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] firstValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, firstValues);
+
+        ContentValues[] secondValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : secondValues) {
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Snow");
+        }
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, secondValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertReplacesExistingDays.  Error validating WeatherEntry " + i,
+                    cursor, secondValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Repeated weather-by-location queries are served from the provider's cache until the next
+        write.
+     */
+    public void testWeatherQueryCache() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The cache is only used from Honeycomb
+            return;
+        }
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherQueryCache cache = ((WeatherProvider) client.getLocalContentProvider()).getQueryCache();
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        cursor.close();
+
+        int hits = cache.hitCount();
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        assertEquals("Error: The repeated query was not served from the cache", hits + 1, cache.hitCount());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testWeatherQueryCache.  Error validating WeatherEntry " + i,
+                    cursor, weatherValues[i]);
+        }
+        cursor.close();
+
+        // A write must not leave the old rows in the cache
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Snow");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+
+        hits = cache.hitCount();
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        assertEquals(hits, cache.hitCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Snow", cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+
+        client.release();
+    }
+
+    /*
+        applyBatch should apply every operation in one transaction and send a single
+        notification once it has committed.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        // Removes the first day again, inside the same transaction
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE))})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        assertEquals(Integer.valueOf(1), results[results.length - 1].count);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, weatherValues[i]);
+        }
+        cursor.close();
+    }
+
+    // The stats are computed over the days in their range only
+    public void testWeatherStats() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_UPSERT_URI, testValues));
+        // Day i has a max of 75 + i and a min of 65 - i
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        long start = TestUtilities.TEST_DATE + 2 * millisecondsInADay;
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStats(TestUtilities.TEST_LOCATION,
+                        start, start + 4 * millisecondsInADay),
+                null, null, null, null);
+        assertTrue("Error: No stats row", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(4, cursor.getInt(cursor.getColumnIndex(WeatherEntry.STATS_DAY_COUNT)));
+        assertEquals(65.0 - 5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_MIN_TEMP)));
+        assertEquals(75.0 + 5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_MAX_TEMP)));
+        assertEquals(70.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_AVG_TEMP)), 0.001);
+        assertEquals(WeatherContract.normalizeDate(start + 3 * millisecondsInADay),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.STATS_WARMEST_DATE)));
+        cursor.close();
+
+        // Only the columns asked for
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStats(TestUtilities.TEST_LOCATION,
+                        start, start + 4 * millisecondsInADay),
+                new String[]{WeatherEntry.STATS_MAX_TEMP}, null, null, null);
+        assertEquals(1, cursor.getColumnCount());
+        cursor.close();
+
+        // A location without days still gets its row
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStats("nowhere", start, start + 4 * millisecondsInADay),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherEntry.STATS_DAY_COUNT)));
+        cursor.close();
+    }
+
+    public void testWeatherPaging() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_UPSERT_URI, testValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        // By position
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageUri(weatherUri, 4, 0), null, null, null, sortOrder);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageUri(weatherUri, 4, 8), null, null, null, sortOrder);
+        assertEquals("Error: The last page should be short", 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 8 * millisecondsInADay),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+
+        // By key, starting after the last date of the page before
+        long lastSeenDate = WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + 3 * millisecondsInADay);
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageAfterUri(weatherUri, lastSeenDate, 4),
+                null, null, null, sortOrder);
+        assertEquals(4, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(lastSeenDate + millisecondsInADay,
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+
+        // A start date later than the key wins
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageAfterUri(
+                        WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                                lastSeenDate + 5 * millisecondsInADay),
+                        lastSeenDate, 4),
+                null, null, null, sortOrder);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    static final int HOURLY_STEPS_TO_INSERT = 40;
+    static final long THREE_HOURS_IN_MILLIS = 3 * 60 * 60 * 1000;
+
+    static ContentValues[] createHourlyValues(long firstDate, double temp) {
+        ContentValues[] returnContentValues = new ContentValues[HOURLY_STEPS_TO_INSERT];
+        for (int i = 0; i < HOURLY_STEPS_TO_INSERT; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_DATE, firstDate + i * THREE_HOURS_IN_MILLIS);
+            hourlyValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Asteroids");
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, temp + i);
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 1.2);
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 1.3);
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 1.1);
+            returnContentValues[i] = hourlyValues;
+        }
+        return returnContentValues;
+    }
+
+    // The hourly forecast is loaded per location, and read back by time range
+    public void testHourlyBulkInsertAndRange() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_UPSERT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        Uri locationHourlyUri = HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION);
+        long firstDate = TestUtilities.TEST_DATE;
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                locationHourlyUri, createHourlyValues(firstDate, 10));
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+        assertEquals(HOURLY_STEPS_TO_INSERT, insertCount);
+
+        // A newer forecast for the same steps replaces them rather than adding to them
+        insertCount = mContext.getContentResolver().bulkInsert(
+                locationHourlyUri, createHourlyValues(firstDate + 8 * THREE_HOURS_IN_MILLIS, 20));
+        assertEquals(HOURLY_STEPS_TO_INSERT, insertCount);
+        Cursor cursor = mContext.getContentResolver().query(locationHourlyUri, null, null, null, null);
+        assertEquals("Error: Overlapping steps were not replaced",
+                HOURLY_STEPS_TO_INSERT + 8, cursor.getCount());
+        cursor.close();
+
+        // The range is inclusive of its start and exclusive of its end
+        long start = firstDate + 8 * THREE_HOURS_IN_MILLIS;
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        start, start + 4 * THREE_HOURS_IN_MILLIS),
+                null, null, null, HourlyEntry.COLUMN_DATE + " ASC");
+        assertEquals(4, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(start + i * THREE_HOURS_IN_MILLIS,
+                    cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_DATE)));
+            assertEquals(20.0 + i, cursor.getDouble(cursor.getColumnIndex(HourlyEntry.COLUMN_TEMP)));
+        }
+        cursor.close();
+
+        // Rows for a location that isn't stored have nowhere to go
+        assertEquals(0, mContext.getContentResolver().bulkInsert(
+                HourlyEntry.buildHourlyLocation("nowhere"), createHourlyValues(firstDate, 10)));
+    }
+
+    // Upserting a location that is already stored hands back its row instead of adding another
+    public void testLocationUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true, tco);
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_UPSERT_URI, testValues);
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue("Error: Upsert of a new location failed", locationRowId > 0);
+
+        // Both from the provider's memory and, after an update empties it, from the table
+        assertEquals("Error: Upsert of a known location returned another row",
+                locationRowId, ContentUris.parseId(mContext.getContentResolver().insert(
+                        LocationEntry.CONTENT_UPSERT_URI, testValues)));
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole Village");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, updatedValues, null, null);
+        assertEquals("Error: Upsert of a stored location returned another row",
+                locationRowId, ContentUris.parseId(mContext.getContentResolver().insert(
+                        LocationEntry.CONTENT_UPSERT_URI, testValues)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Upserts added more than one location", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Upsert changed the stored location", "North Pole Village",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        // A deleted location must not come back with its old id
+        deleteAllRecordsFromProvider();
+        long newRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_UPSERT_URI, testValues));
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(newRowId)}, null);
+        assertEquals("Error: Upsert after a delete returned a stale row", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A batch notifies each changed Uri once, and counts the notifications it left out.
+     */
+    public void testApplyBatchCoalescesNotifications() throws Exception {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole Village");
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build());
+
+        int suppressedBefore = provider.getSuppressedNotificationCount();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        // One notification for weather and one for location; the other weather inserts are folded in
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                provider.getSuppressedNotificationCount() - suppressedBefore);
+        client.release();
+
+        // A Uri covers its descendants, but not its siblings
+        assertTrue(ChangeNotificationBatch.isSameOrAncestor(WeatherEntry.CONTENT_URI,
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+        assertFalse(ChangeNotificationBatch.isSameOrAncestor(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), WeatherEntry.CONTENT_URI));
+        assertFalse(ChangeNotificationBatch.isSameOrAncestor(WeatherEntry.CONTENT_URI, LocationEntry.CONTENT_URI));
+    }
+
+    /*
+        What a batch commits when it yields stays committed if a later operation fails, and
+        observers must hear about it.
+     */
+    public void testApplyBatchNotifiesWhatAYieldCommitted() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(weatherValues[0])
+                .build());
+        // The provider yields here, committing the first day
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(weatherValues[1])
+                .withYieldAllowed(true)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(
+                WeatherContract.BASE_CONTENT_URI.buildUpon().appendPath("unknown").build())
+                .build());
+
+        YieldingWeatherProvider provider = new YieldingWeatherProvider();
+        provider.attachInfo(mContext, null);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        try {
+            provider.applyBatch(operations);
+            fail("Error: The batch should have failed on its last operation");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        // Only the day before the yield is left
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("Error: The committed day is wrong",
+                cursor, weatherValues[0]);
+        cursor.close();
+        provider.shutdown();
+    }
+
+    /*
+        A batch that fails after a yield still accounts for every notification it held back,
+        before the yield and after it.
+     */
+    public void testApplyBatchCountsNotificationsOfAFailedBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < 4; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues[i])
+                    .withYieldAllowed(i == 2)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(
+                WeatherContract.BASE_CONTENT_URI.buildUpon().appendPath("unknown").build())
+                .build());
+
+        YieldingWeatherProvider provider = new YieldingWeatherProvider();
+        provider.attachInfo(mContext, null);
+        try {
+            provider.applyBatch(operations);
+            fail("Error: The batch should have failed on its last operation");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        // Two inserts on each side of the yield, each pair folded into one notification
+        assertEquals(2, provider.getSuppressedNotificationCount());
+        provider.shutdown();
+    }
+
+    /**
+     * A provider that yields at every point it may, as if another writer were always waiting.
+     */
+    static class YieldingWeatherProvider extends WeatherProvider {
+        @Override
+        boolean yieldIfContended(SQLiteDatabase db) {
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            db.beginTransaction();
+            return true;
+        }
+    }
 }
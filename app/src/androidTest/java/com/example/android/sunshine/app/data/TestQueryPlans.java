@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the queries behind each WeatherProvider Uri are answered from an index rather
+    than by scanning a table.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testWeatherWithLocationUsesIndices() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingSelection, null, null, SORT_ORDER, null);
+        assertNoTableScan(sql, new String[]{"99705"});
+    }
+
+    public void testWeatherWithLocationAndStartDateUsesIndices() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingWithStartDateSelection, null, null, SORT_ORDER, null);
+        assertNoTableScan(sql, new String[]{"99705", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testWeatherWithLocationAndDateUsesIndices() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        assertNoTableScan(sql, new String[]{"99705", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testSyncLookupsUseIndices() {
+        // The sync's lookup of today's forecast for the wearable
+        assertNoTableScan("SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                        WeatherEntry.COLUMN_DATE + " = ? AND " + WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE), "1"});
+
+        // and the provider's lookup of a location's id
+        assertNoTableScan("SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{"99705"});
+    }
+
+    public void testWeatherStatsUseIndices() {
+        assertNoTableScan(WeatherProvider.sWeatherStatsQuery,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE), Long.toString(Long.MAX_VALUE)});
+    }
+
+    public void testHourlyWithLocationUsesKey() {
+        assertNoTableScan("SELECT * FROM " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sHourlyLocationRangeSelection +
+                        " ORDER BY " + WeatherContract.HourlyEntry.COLUMN_DATE,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE), Long.toString(Long.MAX_VALUE)});
+    }
+
+    public void testHistoryWithLocationUsesKey() {
+        assertNoTableScan("SELECT * FROM " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sHistoryLocationSelection +
+                        " ORDER BY " + WeatherContract.HistoryEntry.COLUMN_DATE,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    private void assertNoTableScan(String sql, String[] args) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = plan.getColumnIndex("detail");
+        assertTrue("Error: No query plan for " + sql, plan.moveToFirst());
+        do {
+            String detail = plan.getString(detailIndex);
+            // Older SQLite versions say "SCAN TABLE weather", newer ones "SCAN weather"
+            assertFalse("Error: Table scan in the plan for " + sql + ": " + detail,
+                    detail.startsWith("SCAN"));
+        } while (plan.moveToNext());
+        plan.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs the retention against a database with a week of days around a fixed "today".
+ */
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private static final long TODAY = TestUtilities.TEST_DATE;
+    private static final long DAY = DateUtils.DAY_IN_MILLIS;
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationRowId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        // Five days before today, today and two days after it
+        for (int day = -5; day <= 2; day++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TODAY + day * DAY);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 10 + day);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + day);
+            assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testRollsUpDaysBeforeToday() {
+        // Yesterday has three 3 hourly steps, so its mean comes from them
+        for (int step = 0; step < 3; step++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_LOC_KEY, mLocationRowId);
+            hourlyValues.put(HourlyEntry.COLUMN_DATE, TODAY - DAY + step * 3 * DateUtils.HOUR_IN_MILLIS);
+            hourlyValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Asteroids");
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, 1 + step);
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 1.2);
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 1.3);
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 1.1);
+            assertTrue(mDb.insert(HourlyEntry.TABLE_NAME, null, hourlyValues) != -1);
+        }
+
+        // A chunk smaller than the backlog, so it takes several
+        WeatherRetention retention = new WeatherRetention(new WeatherRetention.Policy(0, 32, 365, 2));
+        retention.run(mDb, TODAY);
+
+        assertEquals(5, retention.rolledUpRows);
+        assertEquals(3, retention.deletedHourlyRows);
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, HourlyEntry.TABLE_NAME));
+        assertEquals(5, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+
+        assertEquals("Error: The mean of a day with steps should be theirs",
+                2.0, getAverage(TODAY - DAY), 0.001);
+        assertEquals("Error: The mean of a day without steps should be that of its min and max",
+                (10 - 5 + 20 - 5) / 2.0, getAverage(TODAY - 5 * DAY), 0.001);
+    }
+
+    public void testCapsRowsPerLocation() {
+        WeatherRetention retention = new WeatherRetention(new WeatherRetention.Policy(5, 4, 365, 50));
+        retention.run(mDb, TODAY);
+
+        // Only the newest four days are kept, though the other past days are within the raw days
+        assertEquals(4, retention.rolledUpRows);
+        assertEquals(TODAY - DAY, getOldestRawDate());
+        assertEquals(4, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+    }
+
+    public void testCapNeverRollsUpTheForecast() {
+        // Smaller than today and the two days after it
+        WeatherRetention retention = new WeatherRetention(new WeatherRetention.Policy(5, 2, 365, 50));
+        retention.run(mDb, TODAY);
+
+        // Every past day goes, but today and the forecast are kept over the cap
+        assertEquals(5, retention.rolledUpRows);
+        assertEquals(TODAY, getOldestRawDate());
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals(5, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+    }
+
+    public void testRollsUpTheSameDayTwice() {
+        WeatherRetention retention = new WeatherRetention(new WeatherRetention.Policy(0, 32, 365, 50));
+        retention.run(mDb, TODAY);
+        assertEquals(5, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+
+        // A newer forecast for yesterday is stored after it was rolled up
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TODAY - DAY);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 30);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 40);
+        assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+
+        retention.run(mDb, TODAY);
+
+        assertEquals(1, retention.rolledUpRows);
+        assertEquals(5, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+        assertEquals("Error: The second roll up should replace the first",
+                35.0, getAverage(TODAY - DAY), 0.001);
+    }
+
+    public void testExpiresHistory() {
+        new WeatherRetention(new WeatherRetention.Policy(0, 32, 2, 50)).run(mDb, TODAY);
+
+        // Of the five rolled up days, only the last two are recent enough to keep
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+    }
+
+    private long getOldestRawDate() {
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                null, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Error: No weather left", cursor.moveToFirst());
+        long date = cursor.getLong(0);
+        cursor.close();
+        return date;
+    }
+
+    private double getAverage(long date) {
+        Cursor cursor = mDb.query(HistoryEntry.TABLE_NAME, new String[]{HistoryEntry.COLUMN_AVG_TEMP},
+                HistoryEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(date)}, null, null, null);
+        assertTrue("Error: No history for " + date, cursor.moveToFirst());
+        double average = cursor.getDouble(0);
+        cursor.close();
+        return average;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncBackoff extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+
+    private SyncBackoff mBackoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBackoff = new SyncBackoff(mContext);
+        mBackoff.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBackoff.reset();
+        super.tearDown();
+    }
+
+    public void testDelayGrowsExponentiallyUpToTheCap() {
+        // The jitter spreads each delay between half of and the full exponential delay
+        long base = SyncBackoff.BASE_DELAY_SECONDS;
+        assertEquals(base / 2, SyncBackoff.getDelaySeconds(1, 0));
+        assertEquals(base * 3 / 4, SyncBackoff.getDelaySeconds(1, 0.5));
+        assertEquals(base * 2 * 3 / 4, SyncBackoff.getDelaySeconds(2, 0.5));
+        assertEquals(base * 8 * 3 / 4, SyncBackoff.getDelaySeconds(4, 0.5));
+        assertTrue(SyncBackoff.getDelaySeconds(4, 0.999999) < base * 8);
+
+        long max = SyncBackoff.MAX_DELAY_SECONDS;
+        assertEquals(max / 2, SyncBackoff.getDelaySeconds(100, 0));
+        assertEquals(max * 3 / 4, SyncBackoff.getDelaySeconds(100, 0.5));
+    }
+
+    public void testFailuresBackOffAndSuccessResets() {
+        assertEquals(0, mBackoff.getRemainingDelaySeconds(LOCATION));
+
+        long delay = mBackoff.recordOutcome(LOCATION, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        assertTrue("Error: no backoff after a failure", delay > 0);
+        assertTrue(mBackoff.getRemainingDelaySeconds(LOCATION) > 0);
+
+        // The backoff belongs to the location that failed
+        assertEquals(0, mBackoff.getRemainingDelaySeconds("10001"));
+
+        mBackoff.recordOutcome(LOCATION, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        assertEquals(0, mBackoff.getRemainingDelaySeconds(LOCATION));
+    }
+
+    public void testInvalidLocationDoesNotBackOff() {
+        assertEquals(0, mBackoff.recordOutcome(LOCATION, SunshineSyncAdapter.LOCATION_STATUS_INVALID));
+        assertEquals(0, mBackoff.getRemainingDelaySeconds(LOCATION));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+
+    private HandlerThread mThread;
+    private final AtomicInteger mSent = new AtomicInteger();
+    private CountDownLatch mSentLatch;
+    private SyncRequestCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("SyncRequestCoalescerThread");
+        mThread.start();
+        mSentLatch = new CountDownLatch(1);
+        mCoalescer = new SyncRequestCoalescer(mThread.getLooper(),
+                new SyncRequestCoalescer.RequestSender() {
+                    @Override
+                    public void send(boolean allLocations) {
+                        mSent.incrementAndGet();
+                        mSentLatch.countDown();
+                    }
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBurstIsSentOnce() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            mCoalescer.request(LOCATION, false);
+        }
+        assertTrue("Error: the coalesced request was never sent",
+                mSentLatch.await(SyncRequestCoalescer.MAX_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS));
+
+        // Give a wrongly scheduled second send the chance to show up
+        Thread.sleep(SyncRequestCoalescer.DEBOUNCE_MILLIS * 2);
+        assertEquals(1, mSent.get());
+        assertEquals(4, mCoalescer.getMergedRequestCount());
+    }
+
+    public void testRequestForRunningSyncIsMerged() throws InterruptedException {
+        mCoalescer.onSyncStarted(LOCATION);
+        mCoalescer.request(LOCATION, false);
+        mCoalescer.onSyncFinished(LOCATION);
+
+        Thread.sleep(SyncRequestCoalescer.DEBOUNCE_MILLIS * 2);
+        assertEquals(0, mSent.get());
+        assertEquals(1, mCoalescer.getMergedRequestCount());
+
+        // Other locations still get their own sync
+        mCoalescer.onSyncStarted(LOCATION);
+        mCoalescer.request("10001", false);
+        mCoalescer.onSyncFinished(LOCATION);
+        assertTrue(mSentLatch.await(SyncRequestCoalescer.MAX_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestWearableDedup extends AndroidTestCase {
+
+    private static final int WEATHER_ID = 800;
+    private static final double HIGH = 24.6;
+    private static final double LOW = 16.1;
+    private static final long DATE = 1419033600000L;
+
+    private WearableDedup mDedup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDedup = new WearableDedup(mContext);
+        mDedup.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDedup.reset();
+        super.tearDown();
+    }
+
+    public void testHashCoversWhatTheWatchShows() {
+        long hash = WearableDedup.hash(WEATHER_ID, HIGH, LOW, DATE, true);
+        assertEquals(hash, WearableDedup.hash(WEATHER_ID, HIGH, LOW, DATE, true));
+
+        assertTrue("Error: condition not hashed",
+                hash != WearableDedup.hash(801, HIGH, LOW, DATE, true));
+        assertTrue("Error: high not hashed",
+                hash != WearableDedup.hash(WEATHER_ID, HIGH + 1, LOW, DATE, true));
+        assertTrue("Error: low not hashed",
+                hash != WearableDedup.hash(WEATHER_ID, HIGH, LOW - 1, DATE, true));
+        assertTrue("Error: date not hashed",
+                hash != WearableDedup.hash(WEATHER_ID, HIGH, LOW, DATE + 86400000L, true));
+        assertTrue("Error: units not hashed",
+                hash != WearableDedup.hash(WEATHER_ID, HIGH, LOW, DATE, false));
+        // Swapped temperatures are different weather
+        assertTrue(hash != WearableDedup.hash(WEATHER_ID, LOW, HIGH, DATE, true));
+    }
+
+    public void testOnlyTheLastDeliveryIsRemembered() {
+        long hash = WearableDedup.hash(WEATHER_ID, HIGH, LOW, DATE, true);
+        long changed = WearableDedup.hash(WEATHER_ID, HIGH + 1, LOW, DATE, true);
+        assertFalse("Error: delivered before anything was sent", mDedup.isDelivered(hash));
+
+        mDedup.recordDelivered(hash);
+        assertTrue(mDedup.isDelivered(hash));
+        assertFalse(mDedup.isDelivered(changed));
+
+        mDedup.recordDelivered(changed);
+        assertFalse(mDedup.isDelivered(hash));
+        assertTrue(mDedup.isDelivered(changed));
+
+        // The hash survives the sync adapter being recreated
+        assertTrue(new WearableDedup(mContext).isDelivered(changed));
+    }
+}
@@ -65,7 +65,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
     private static final String SELECTED_KEY = "selected_position";
+    private static final String LIMIT_KEY = "forecast_limit";
     private static final int FORECAST_LOADER = 0;
+    // The list loads this many days at first, and this many more each time the user scrolls to
+    // within PREFETCH_DISTANCE of the end.
+    private static final int PAGE_SIZE = 7;
+    private static final int PREFETCH_DISTANCE = 2;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -91,6 +96,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private int mLimit = PAGE_SIZE;
+    private boolean mLoadingNextPage;
 
     public ForecastFragment() {
     }
@@ -185,6 +192,18 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager.findLastVisibleItemPosition()
+                        >= mForecastAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -229,6 +248,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // actually *lost*.
         if (savedInstanceState != null) {
             mForecastAdapter.onRestoreInstanceState(savedInstanceState);
+            mLimit = savedInstanceState.getInt(LIMIT_KEY, PAGE_SIZE);
         }
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
@@ -250,6 +270,24 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
+        mLimit = PAGE_SIZE;
+        mLoadingNextPage = false;
+        getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+    }
+
+    // Grows the window the loader reads by a page.  The list keeps a single loader over the
+    // first mLimit days, rather than one per page, so a sync still refreshes all of it at once.
+    private void loadNextPage() {
+        if (mLoadingNextPage) {
+            return;
+        }
+        Cursor data = mForecastAdapter.getCursor();
+        // A short page means there are no more days to load
+        if (null == data || data.getCount() < mLimit) {
+            return;
+        }
+        mLimit += PAGE_SIZE;
+        mLoadingNextPage = true;
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
@@ -282,6 +320,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSaveInstanceState(Bundle outState) {
         // When tablets rotate, the currently selected list item needs to be saved.
         mForecastAdapter.onSaveInstanceState(outState);
+        outState.putInt(LIMIT_KEY, mLimit);
         super.onSaveInstanceState(outState);
     }
 
@@ -301,7 +340,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 locationSetting, System.currentTimeMillis());
 
         return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+                WeatherContract.buildPageUri(weatherForLocationUri, mLimit, 0),
                 FORECAST_COLUMNS,
                 null,
                 null,
@@ -310,8 +349,21 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        boolean loadedNextPage = mLoadingNextPage;
+        mLoadingNextPage = false;
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
+        if (loadedNextPage) {
+            // The user scrolled here; leave the list where it is
+            return;
+        }
+        if (-1 != mInitialSelectedDate && data.getCount() == mLimit && data.moveToLast()
+                && data.getLong(COL_WEATHER_DATE) < mInitialSelectedDate) {
+            // The day to select is past the days loaded so far, so load up to it first
+            mLimit += PAGE_SIZE;
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+            return;
+        }
         if (data.getCount() == 0) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
@@ -133,18 +133,27 @@ public class SettingsActivity extends PreferenceActivity
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_key))) {
             // we've changed the location
+            // the sync reads it from the snapshot, which may not have heard about it yet
+            SettingsSnapshot.refresh(this);
             // first clear locationStatus
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
+            SettingsSnapshot.refresh(this);
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         } else if (key.equals(getString(R.string.pref_location_status_key))) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
+        } else if (key.equals(getString(R.string.pref_sync_all_locations_key))) {
+            // start tracking the other locations right away rather than at the next periodic sync
+            if (sharedPreferences.getBoolean(key, false)) {
+                SunshineSyncAdapter.syncAllLocationsImmediately(this);
+            }
         } else if (key.equals(getString(R.string.pref_art_pack_key))) {
             // art pack have changed. update lists of weather entries accordingly
+            SettingsSnapshot.refresh(this);
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         }
     }
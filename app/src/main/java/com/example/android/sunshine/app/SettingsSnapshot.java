@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The settings the forecast is shown with: the location, the units and the art pack.
+ * <p>
+ * The list, the detail view, the widgets and the wearable use these for every day they show.
+ * Reading them from SharedPreferences each time costs a map lookup plus the key and default
+ * strings from resources.  A snapshot is read once, and a listener replaces it whenever one of
+ * them changes, so getting the current one is a field read.  Snapshots never change, so a
+ * caller that takes one for a whole row or widget sees consistent settings throughout.
+ * <p>
+ * A change made on the main thread, as the settings screen makes them, is in the snapshot by the
+ * time commit() or apply() returns.  One made on another thread shows up once the main thread
+ * has been told about it.  Other listeners may be told about a change before the snapshot is, so
+ * one that reads the settings while handling it calls {@link #refresh} first.
+ */
+public final class SettingsSnapshot {
+
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only keeps a weak reference to its listeners, so this keeps it alive.
+    // guarded by sLock
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mLocation;
+    private final boolean mMetric;
+    private final String mArtUrlFormat;
+    private final boolean mLocalGraphics;
+
+    private SettingsSnapshot(String location, boolean metric, String artUrlFormat,
+                             boolean localGraphics) {
+        mLocation = location;
+        mMetric = metric;
+        mArtUrlFormat = artUrlFormat;
+        mLocalGraphics = localGraphics;
+    }
+
+    /**
+     * @return the settings as they are now
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        if (null != snapshot) {
+            return snapshot;
+        }
+        synchronized (sLock) {
+            if (null == sCurrent) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                final String locationKey = appContext.getString(R.string.pref_location_key);
+                final String unitsKey = appContext.getString(R.string.pref_units_key);
+                final String artPackKey = appContext.getString(R.string.pref_art_pack_key);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        if (locationKey.equals(key) || unitsKey.equals(key)
+                                || artPackKey.equals(key)) {
+                            synchronized (sLock) {
+                                sCurrent = read(appContext, prefs);
+                            }
+                        }
+                    }
+                };
+                // Listen before reading, so a change in between isn't missed
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sCurrent = read(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * Reads the settings again now, rather than waiting for the change listener.
+     *
+     * @return the settings as they are now
+     */
+    public static SettingsSnapshot refresh(Context context) {
+        synchronized (sLock) {
+            if (null == sCurrent) {
+                return get(context);
+            }
+            Context appContext = context.getApplicationContext();
+            sCurrent = read(appContext, PreferenceManager.getDefaultSharedPreferences(appContext));
+            return sCurrent;
+        }
+    }
+
+    private static SettingsSnapshot read(Context context, SharedPreferences prefs) {
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        return new SettingsSnapshot(
+                prefs.getString(context.getString(R.string.pref_location_key),
+                        context.getString(R.string.pref_location_default)),
+                prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                        .equals(metricUnits),
+                artUrlFormat,
+                artUrlFormat.equals(sunshineArtPack));
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the URL format of the art pack, taking the name of the art
+     */
+    public String getArtUrlFormat() {
+        return mArtUrlFormat;
+    }
+
+    /**
+     * @return true if the art comes from the app's own resources rather than over the network
+     */
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+}
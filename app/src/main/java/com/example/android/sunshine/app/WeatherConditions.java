@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * What to show for an OpenWeatherMap condition id: its icon, art, art and image URLs, and
+ * description.
+ * <p>
+ * The list looks these up for every row it binds, and the widgets for every item they fill.
+ * Every id OpenWeatherMap uses is below 1000, so the ids are mapped once, into tables indexed
+ * by id, and each lookup is an array read.  Descriptions are resolved the first time they are
+ * asked for and kept until the locale changes.
+ * <p>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    static final int MAX_ID = 999;
+
+    // The kinds of weather with their own art, used to index the tables below.  The ids of a
+    // kind map to the same icon, art and image.
+    private static final byte NONE = 0;
+    private static final byte STORM = 1;
+    private static final byte LIGHT_RAIN = 2;
+    private static final byte RAIN = 3;
+    private static final byte SNOW = 4;
+    private static final byte FOG = 5;
+    private static final byte CLEAR = 6;
+    private static final byte LIGHT_CLOUDS = 7;
+    private static final byte CLOUDS = 8;
+
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // What an art pack's URL format is filled in with
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // The kind of each id
+    private static final byte[] KINDS = new byte[MAX_ID + 1];
+    // The description of each id, or 0 for the unknown ones
+    private static final int[] STRING_IDS = new int[MAX_ID + 1];
+
+    static {
+        fillKind(200, 232, STORM);
+        fillKind(300, 321, LIGHT_RAIN);
+        fillKind(500, 504, RAIN);
+        fillKind(511, 511, SNOW);
+        fillKind(520, 531, RAIN);
+        fillKind(600, 622, SNOW);
+        // 761 (dust) has always been drawn as fog, not as a storm like 781 (tornado).  762 and
+        // 771 have never had art.
+        fillKind(701, 761, FOG);
+        fillKind(781, 781, STORM);
+        fillKind(800, 800, CLEAR);
+        fillKind(801, 801, LIGHT_CLOUDS);
+        fillKind(802, 804, CLOUDS);
+
+        Arrays.fill(STRING_IDS, 200, 232 + 1, R.string.condition_2xx);
+        Arrays.fill(STRING_IDS, 300, 321 + 1, R.string.condition_3xx);
+        STRING_IDS[500] = R.string.condition_500;
+        STRING_IDS[501] = R.string.condition_501;
+        STRING_IDS[502] = R.string.condition_502;
+        STRING_IDS[503] = R.string.condition_503;
+        STRING_IDS[504] = R.string.condition_504;
+        STRING_IDS[511] = R.string.condition_511;
+        STRING_IDS[520] = R.string.condition_520;
+        STRING_IDS[531] = R.string.condition_531;
+        STRING_IDS[600] = R.string.condition_600;
+        STRING_IDS[601] = R.string.condition_601;
+        STRING_IDS[602] = R.string.condition_602;
+        STRING_IDS[611] = R.string.condition_611;
+        STRING_IDS[612] = R.string.condition_612;
+        STRING_IDS[615] = R.string.condition_615;
+        STRING_IDS[616] = R.string.condition_616;
+        STRING_IDS[620] = R.string.condition_620;
+        STRING_IDS[621] = R.string.condition_621;
+        STRING_IDS[622] = R.string.condition_622;
+        STRING_IDS[701] = R.string.condition_701;
+        STRING_IDS[711] = R.string.condition_711;
+        STRING_IDS[721] = R.string.condition_721;
+        STRING_IDS[731] = R.string.condition_731;
+        STRING_IDS[741] = R.string.condition_741;
+        STRING_IDS[751] = R.string.condition_751;
+        STRING_IDS[761] = R.string.condition_761;
+        STRING_IDS[762] = R.string.condition_762;
+        STRING_IDS[771] = R.string.condition_771;
+        STRING_IDS[781] = R.string.condition_781;
+        STRING_IDS[800] = R.string.condition_800;
+        STRING_IDS[801] = R.string.condition_801;
+        STRING_IDS[802] = R.string.condition_802;
+        STRING_IDS[803] = R.string.condition_803;
+        STRING_IDS[804] = R.string.condition_804;
+        STRING_IDS[900] = R.string.condition_900;
+        STRING_IDS[901] = R.string.condition_901;
+        STRING_IDS[902] = R.string.condition_902;
+        STRING_IDS[903] = R.string.condition_903;
+        STRING_IDS[904] = R.string.condition_904;
+        STRING_IDS[905] = R.string.condition_905;
+        STRING_IDS[906] = R.string.condition_906;
+        STRING_IDS[951] = R.string.condition_951;
+        STRING_IDS[952] = R.string.condition_952;
+        STRING_IDS[953] = R.string.condition_953;
+        STRING_IDS[954] = R.string.condition_954;
+        STRING_IDS[955] = R.string.condition_955;
+        STRING_IDS[956] = R.string.condition_956;
+        STRING_IDS[957] = R.string.condition_957;
+        STRING_IDS[958] = R.string.condition_958;
+        STRING_IDS[959] = R.string.condition_959;
+        STRING_IDS[960] = R.string.condition_960;
+        STRING_IDS[961] = R.string.condition_961;
+        STRING_IDS[962] = R.string.condition_962;
+    }
+
+    // The art URLs of the art pack asked for last, and the descriptions for the locale used last.
+    // Each is replaced as a whole when its key changes.
+    private static volatile ArtUrls sArtUrls;
+    private static volatile Descriptions sDescriptions;
+
+    private WeatherConditions() {
+    }
+
+    private static void fillKind(int fromId, int toId, byte kind) {
+        Arrays.fill(KINDS, fromId, toId + 1, kind);
+    }
+
+    private static byte getKind(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_ID ? KINDS[weatherId] : NONE;
+    }
+
+    /**
+     * @return the icon resource id for {@code weatherId}, or -1 if there is none
+     */
+    static int getIconResource(int weatherId) {
+        return ICONS[getKind(weatherId)];
+    }
+
+    /**
+     * @return the art resource id for {@code weatherId}, or -1 if there is none
+     */
+    static int getArtResource(int weatherId) {
+        return ARTS[getKind(weatherId)];
+    }
+
+    /**
+     * @return the URL of a photo for {@code weatherId}, or null if there is none
+     */
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getKind(weatherId)];
+    }
+
+    /**
+     * @param artUrlFormat the URL format of an art pack, taking the name of the art
+     * @return the URL of the art for {@code weatherId} in that pack, or null if there is none
+     */
+    static String getArtUrl(String artUrlFormat, int weatherId) {
+        byte kind = getKind(weatherId);
+        if (kind == NONE) {
+            return null;
+        }
+        ArtUrls artUrls = sArtUrls;
+        if (null == artUrls || !artUrls.format.equals(artUrlFormat)) {
+            artUrls = new ArtUrls(artUrlFormat);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[kind];
+    }
+
+    /**
+     * @return the description of {@code weatherId} in the locale of {@code context}
+     */
+    static String getDescription(Context context, int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_ID) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        Locale locale = context.getResources().getConfiguration().locale;
+        Descriptions descriptions = sDescriptions;
+        if (null == descriptions || !descriptions.locale.equals(locale)) {
+            descriptions = new Descriptions(locale);
+            sDescriptions = descriptions;
+        }
+        String description = descriptions.strings[weatherId];
+        if (null == description) {
+            int stringId = STRING_IDS[weatherId];
+            description = stringId != 0
+                    ? context.getString(stringId)
+                    : context.getString(R.string.condition_unknown, weatherId);
+            // Threads racing here resolve the same string, so either write will do
+            descriptions.strings[weatherId] = description;
+        }
+        return description;
+    }
+
+    private static final class ArtUrls {
+        final String format;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrls(String format) {
+            this.format = format;
+            for (int kind = NONE + 1; kind < urls.length; kind++) {
+                urls[kind] = String.format(Locale.US, format, ART_NAMES[kind]);
+            }
+        }
+    }
+
+    private static final class Descriptions {
+        final Locale locale;
+        final String[] strings = new String[MAX_ID + 1];
+
+        Descriptions(Locale locale) {
+            this.locale = locale;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Change notifications held back until a batch of writes has committed.
+ * <p>
+ * A notification for a Uri also reaches every observer registered for its descendants (the
+ * cursors behind the loaders and widgets all register that way), so a Uri whose ancestor is
+ * already in the batch adds nothing.  Duplicates and such descendants are dropped as they are
+ * added, and what is left is sent once, in the order it first arrived.
+ */
+class ChangeNotificationBatch {
+
+    private final List<Uri> mUris = new ArrayList<Uri>();
+    private int mSuppressedCount;
+
+    void add(Uri uri) {
+        for (Uri pending : mUris) {
+            if (isSameOrAncestor(pending, uri)) {
+                mSuppressedCount++;
+                return;
+            }
+        }
+        for (Iterator<Uri> it = mUris.iterator(); it.hasNext(); ) {
+            if (isSameOrAncestor(uri, it.next())) {
+                it.remove();
+                mSuppressedCount++;
+            }
+        }
+        mUris.add(uri);
+    }
+
+    /**
+     * @return how many of the added notifications won't be sent
+     */
+    int getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    void send(ContentResolver resolver) {
+        for (Uri uri : mUris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return true if a notification for {@code ancestor} reaches observers of {@code uri}
+     */
+    static boolean isSameOrAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getScheme().equals(uri.getScheme())
+                || !ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() <= segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
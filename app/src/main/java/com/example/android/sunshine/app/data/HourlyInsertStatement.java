@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+/**
+ * A compiled INSERT into the hourly table, for loading a location's whole 3 hourly forecast
+ * (40 rows for five days) in one go.  Like {@link WeatherInsertStatement}, it compiles once and
+ * binds each row by position.  The location is bound separately, so the rows themselves don't
+ * need to carry it.  The table's ON CONFLICT REPLACE key means a row for hours that are already
+ * stored replaces them.
+ */
+class HourlyInsertStatement {
+
+    // The order here is the order of the placeholders in the statement
+    private static final String[] COLUMNS = {
+            HourlyEntry.COLUMN_LOC_KEY,
+            HourlyEntry.COLUMN_DATE,
+            HourlyEntry.COLUMN_SHORT_DESC,
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE,
+            HourlyEntry.COLUMN_WIND_SPEED,
+            HourlyEntry.COLUMN_DEGREES
+    };
+
+    private final SQLiteStatement mStatement;
+
+    HourlyInsertStatement(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(HourlyEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        mStatement = db.compileStatement(sql.toString());
+    }
+
+    /**
+     * Binds a row of {@code locationId} for {@link #executeInsert()}.  Any location key in
+     * {@code values} is ignored.
+     *
+     * @return false if {@code values} is missing a column, in which case the row can't be stored
+     */
+    boolean bind(long locationId, ContentValues values) {
+        Long date = values.getAsLong(HourlyEntry.COLUMN_DATE);
+        String shortDesc = values.getAsString(HourlyEntry.COLUMN_SHORT_DESC);
+        Long weatherId = values.getAsLong(HourlyEntry.COLUMN_WEATHER_ID);
+        Double temp = values.getAsDouble(HourlyEntry.COLUMN_TEMP);
+        Double humidity = values.getAsDouble(HourlyEntry.COLUMN_HUMIDITY);
+        Double pressure = values.getAsDouble(HourlyEntry.COLUMN_PRESSURE);
+        Double windSpeed = values.getAsDouble(HourlyEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(HourlyEntry.COLUMN_DEGREES);
+        if (date == null || shortDesc == null || weatherId == null || temp == null
+                || humidity == null || pressure == null || windSpeed == null || degrees == null) {
+            return false;
+        }
+
+        mStatement.clearBindings();
+        mStatement.bindLong(1, locationId);
+        mStatement.bindLong(2, date);
+        mStatement.bindString(3, shortDesc);
+        mStatement.bindLong(4, weatherId);
+        mStatement.bindDouble(5, temp);
+        mStatement.bindDouble(6, humidity);
+        mStatement.bindDouble(7, pressure);
+        mStatement.bindDouble(8, windSpeed);
+        mStatement.bindDouble(9, degrees);
+        return true;
+    }
+
+    /**
+     * @return the row ID of the row bound last
+     * @throws android.database.SQLException if the row breaks a constraint
+     */
+    long executeInsert() {
+        return mStatement.executeInsert();
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
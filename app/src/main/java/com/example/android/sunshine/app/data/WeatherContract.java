@@ -43,6 +43,80 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_UPSERT = "upsert";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_STATS = "stats";
+
+    // Method for ContentResolver#call (API 11+) that rolls the days before today up into the
+    // history table and trims what the database keeps.  The extras below are optional and
+    // override the default policy; the result holds the number of rows rolled up.
+    public static final String METHOD_APPLY_RETENTION = "apply_retention";
+    // Days before today for which the raw daily and hourly rows are kept
+    public static final String EXTRA_RAW_DAYS = "raw_days";
+    // Most daily rows kept per location, counting the forecast.  Only days before today are
+    // rolled up to stay under it, so today and the forecast are kept even if they are more
+    public static final String EXTRA_MAX_RAW_ROWS_PER_LOCATION = "max_raw_rows_per_location";
+    // Days before today for which history is kept
+    public static final String EXTRA_HISTORY_DAYS = "history_days";
+    // Most rows handled per transaction
+    public static final String EXTRA_CHUNK_SIZE = "chunk_size";
+    public static final String RESULT_ROLLED_UP_ROWS = "rolled_up_rows";
+
+    // Query parameters paging the rows of weather/*, hourly/* and history/*.  limit and offset
+    // page by position.  after pages by key: only rows dated after it are returned, so the next
+    // page starts from the last date seen, and costs the same however deep it is.
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_AFTER = "after";
+
+    /**
+     * @return {@code uri}, returning at most {@code limit} rows, starting with the row at
+     * {@code offset}
+     */
+    public static Uri buildPageUri(Uri uri, int limit, int offset) {
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+        if (offset > 0) {
+            builder.appendQueryParameter(PARAM_OFFSET, Integer.toString(offset));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return {@code uri}, returning at most {@code limit} rows dated after {@code lastSeenDate}
+     */
+    public static Uri buildPageAfterUri(Uri uri, long lastSeenDate, int limit) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_AFTER, Long.toString(lastSeenDate))
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .build();
+    }
+
+    /**
+     * @return the limit of {@code uri} as a LIMIT clause, or null if it has none
+     */
+    public static String getLimitFromUri(Uri uri) {
+        String limit = uri.getQueryParameter(PARAM_LIMIT);
+        if (null == limit || limit.length() == 0)
+            return null;
+        String offset = uri.getQueryParameter(PARAM_OFFSET);
+        // Parsing checks both are numbers before they go into the SQL
+        if (null != offset && offset.length() > 0)
+            return Integer.parseInt(offset) + "," + Integer.parseInt(limit);
+        return Integer.toString(Integer.parseInt(limit));
+    }
+
+    /**
+     * @return the date rows of {@code uri} must be after, or null if there is none
+     */
+    public static Long getAfterDateFromUri(Uri uri) {
+        String after = uri.getQueryParameter(PARAM_AFTER);
+        if (null != after && after.length() > 0)
+            return Long.parseLong(after);
+        else
+            return null;
+    }
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -60,6 +134,11 @@ public class WeatherContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION).build();
 
+        // Inserting here adds the location only if its location setting isn't stored yet.
+        // Either way, the Uri returned is that of the location's row.
+        public static final Uri CONTENT_UPSERT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_UPSERT).build();
+
         public static final String CONTENT_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
         public static final String CONTENT_ITEM_TYPE =
@@ -126,6 +205,29 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Columns of the stats Uri.  Each is an aggregate over the location's days in the range;
+        // with no days in it, the single row has a day count of 0 and nulls elsewhere.
+        public static final String STATS_DAY_COUNT = "day_count";
+        // Lowest min, highest max, and the average of the days' (min + max) / 2
+        public static final String STATS_MIN_TEMP = "min_temp";
+        public static final String STATS_MAX_TEMP = "max_temp";
+        public static final String STATS_AVG_TEMP = "avg_temp";
+        // Date of the day with the highest max, the earliest if several share it
+        public static final String STATS_WARMEST_DATE = "warmest_date";
+        public static final String STATS_MIN_HUMIDITY = "min_humidity";
+        public static final String STATS_MAX_HUMIDITY = "max_humidity";
+        public static final String STATS_AVG_HUMIDITY = "avg_humidity";
+        public static final String STATS_MIN_PRESSURE = "min_pressure";
+        public static final String STATS_MAX_PRESSURE = "max_pressure";
+        public static final String STATS_AVG_PRESSURE = "avg_pressure";
+        public static final String STATS_MIN_WIND_SPEED = "min_wind";
+        public static final String STATS_MAX_WIND_SPEED = "max_wind";
+        public static final String STATS_AVG_WIND_SPEED = "avg_wind";
+
+        // Query parameters bounding the stats by date: start is inclusive, end is exclusive.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +251,37 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @return the Uri of the stats over the location's days from {@code startDate} up to,
+         * but not including, {@code endDate}
+         */
+        public static Uri buildWeatherStats(String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        /**
+         * @return the start of the stats range, or 0 if there is none
+         */
+        public static long getStatsStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start != null && start.length() > 0 ? Long.parseLong(start) : 0;
+        }
+
+        /**
+         * @return the end of the stats range, or Long.MAX_VALUE if there is none
+         */
+        public static long getStatsEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end != null && end.length() > 0 ? Long.parseLong(end) : Long.MAX_VALUE;
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -165,4 +294,111 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the hourly table, which holds the forecast
+        in 3 hour steps.  Rows are keyed by (location_id, date) rather than by an _id, so that
+        reading a location's rows for a span of time is a single range scan of the key.
+     */
+    public static final class HourlyEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3 hours, stored as long in milliseconds since the epoch.  Unlike the
+        // weather table's dates, these are not normalized to the day.
+        public static final String COLUMN_DATE = "date";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API.
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity is stored as a float representing percentage
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding the rows by date: start is inclusive, end is exclusive.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long start, long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(start))
+                    .appendQueryParameter(PARAM_END, Long.toString(end)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start of the range, or 0 if there is none
+         */
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start != null && start.length() > 0 ? Long.parseLong(start) : 0;
+        }
+
+        /**
+         * @return the end of the range, or Long.MAX_VALUE if there is none
+         */
+        public static long getEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end != null && end.length() > 0 ? Long.parseLong(end) : Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table, which keeps one
+        compact row per past day and location once the raw rows have been let go.
+     */
+    public static final class HistoryEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Date, normalized like the weather table's
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Min and max temperatures of the day, and its mean: that of the 3 hourly
+        // temperatures when we had them, or else of the min and max.
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_TEMP = "avg";
+
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The in-place upgrades of the weather database, one step per version.
+ * <p>
+ * Each step takes a database at {@link Migration#fromVersion} to the next version without losing
+ * the cached forecast, so a schema change doesn't send every device back to the network at once.
+ * Steps must keep working on the schema as it was at their version: they spell out their own SQL
+ * rather than reuse whatever {@link WeatherDbHelper#onCreate} does today.
+ * <p>
+ * To change the schema, bump the database version, update onCreate, and add the step from the
+ * previous version to the end of {@link #MIGRATIONS}.
+ */
+final class WeatherDbMigrations {
+
+    /**
+     * Upgrades a database from {@link #fromVersion} to the version after it.
+     */
+    abstract static class Migration {
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Ordered by fromVersion, without gaps.  There is no step from version 1: it predates the
+    // steps, and such a database is simply recreated.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: index weather by location, then date
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date_idx ON " +
+                            WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // 3 -> 4: add the hourly forecast
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + HourlyEntry.TABLE_NAME + " (" +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "temp REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            "FOREIGN KEY (location_id) REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            "PRIMARY KEY (location_id, date) ON CONFLICT REPLACE);");
+                }
+            },
+            // 4 -> 5: add the history the retention rolls past days up into
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + HistoryEntry.TABLE_NAME + " (" +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "avg REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "FOREIGN KEY (location_id) REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            "PRIMARY KEY (location_id, date) ON CONFLICT REPLACE);");
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * @return the step that upgrades a database at {@code version}, or null if there is none
+     */
+    static Migration getMigration(int version) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.fromVersion == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if every step from {@code oldVersion} up to {@code newVersion} exists
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            if (getMigration(version) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the steps from {@code oldVersion} up to {@code newVersion} in order.  The caller must
+     * check {@link #canMigrate} first.  SQLiteOpenHelper runs onUpgrade inside a transaction, so
+     * a failing step leaves the database at its old version.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            getMigration(version).migrate(db);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A compiled INSERT into the weather table.
+ * <p>
+ * {@link SQLiteDatabase#insert} builds and compiles its SQL again for every row and binds the
+ * values through a map.  This compiles the statement once and binds each row's values by
+ * position, which adds up when a sync writes two weeks of forecast for several locations in one
+ * transaction.  The statement is a plain INSERT, so the table's UNIQUE (date, location_id)
+ * ON CONFLICT REPLACE constraint still applies.
+ */
+class WeatherInsertStatement {
+
+    // The order here is the order of the placeholders in the statement
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final SQLiteStatement mStatement;
+
+    WeatherInsertStatement(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        mStatement = db.compileStatement(sql.toString());
+    }
+
+    /**
+     * Binds a row for {@link #executeInsert()}, normalizing its date on the way.
+     *
+     * @return false if {@code values} doesn't hold exactly the weather columns with usable
+     * values; such a row has to go through {@link SQLiteDatabase#insert} instead.
+     */
+    boolean bind(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        Long weatherId = values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        Double minTemp = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        if (locationId == null || date == null || shortDesc == null || weatherId == null
+                || minTemp == null || maxTemp == null || humidity == null || pressure == null
+                || windSpeed == null || degrees == null) {
+            return false;
+        }
+
+        mStatement.clearBindings();
+        mStatement.bindLong(1, locationId);
+        mStatement.bindLong(2, WeatherContract.normalizeDate(date));
+        mStatement.bindString(3, shortDesc);
+        mStatement.bindLong(4, weatherId);
+        mStatement.bindDouble(5, minTemp);
+        mStatement.bindDouble(6, maxTemp);
+        mStatement.bindDouble(7, humidity);
+        mStatement.bindDouble(8, pressure);
+        mStatement.bindDouble(9, windSpeed);
+        mStatement.bindDouble(10, degrees);
+        return true;
+    }
+
+    /**
+     * @return the row ID of the row bound last
+     * @throws android.database.SQLException if the row breaks a constraint
+     */
+    long executeInsert() {
+        return mStatement.executeInsert();
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
@@ -17,36 +17,122 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
+    static final int HOURLY = 200;
+    static final int HOURLY_WITH_LOCATION = 201;
     static final int LOCATION = 300;
+    static final int LOCATION_UPSERT = 301;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+    //location_id = ? AND date >= ? AND date < ?
+    static final String sHourlyLocationRangeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE + " < ? ";
+    //location_id = ?1 AND date >= ?2 AND date < ?3, a range of weather_location_date_idx
+    private static final String sWeatherStatsRange =
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?1" +
+                    " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?2" +
+                    " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?3";
+    // The stats over one location's days, in a single row
+    static final String sWeatherStatsQuery = "SELECT " +
+            "COUNT(*) AS " + WeatherContract.WeatherEntry.STATS_DAY_COUNT + ", " +
+            aggregate("MIN", WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherContract.WeatherEntry.STATS_MIN_TEMP) +
+            aggregate("MAX", WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherContract.WeatherEntry.STATS_MAX_TEMP) +
+            aggregate("AVG", "(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " + " +
+                            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") / 2",
+                    WeatherContract.WeatherEntry.STATS_AVG_TEMP) +
+            "(SELECT " + WeatherContract.WeatherEntry.COLUMN_DATE + sWeatherStatsRange +
+            " ORDER BY " + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " DESC, " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC LIMIT 1) AS " +
+            WeatherContract.WeatherEntry.STATS_WARMEST_DATE + ", " +
+            aggregate("MIN", WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.WeatherEntry.STATS_MIN_HUMIDITY) +
+            aggregate("MAX", WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.WeatherEntry.STATS_MAX_HUMIDITY) +
+            aggregate("AVG", WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.WeatherEntry.STATS_AVG_HUMIDITY) +
+            aggregate("MIN", WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.STATS_MIN_PRESSURE) +
+            aggregate("MAX", WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.STATS_MAX_PRESSURE) +
+            aggregate("AVG", WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.STATS_AVG_PRESSURE) +
+            aggregate("MIN", WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.WeatherEntry.STATS_MIN_WIND_SPEED) +
+            aggregate("MAX", WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.WeatherEntry.STATS_MAX_WIND_SPEED) +
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ") AS " +
+            WeatherContract.WeatherEntry.STATS_AVG_WIND_SPEED +
+            sWeatherStatsRange;
+    private static final Set<String> sWeatherStatsColumns = new HashSet<String>(Arrays.asList(
+            WeatherContract.WeatherEntry.STATS_DAY_COUNT,
+            WeatherContract.WeatherEntry.STATS_MIN_TEMP,
+            WeatherContract.WeatherEntry.STATS_MAX_TEMP,
+            WeatherContract.WeatherEntry.STATS_AVG_TEMP,
+            WeatherContract.WeatherEntry.STATS_WARMEST_DATE,
+            WeatherContract.WeatherEntry.STATS_MIN_HUMIDITY,
+            WeatherContract.WeatherEntry.STATS_MAX_HUMIDITY,
+            WeatherContract.WeatherEntry.STATS_AVG_HUMIDITY,
+            WeatherContract.WeatherEntry.STATS_MIN_PRESSURE,
+            WeatherContract.WeatherEntry.STATS_MAX_PRESSURE,
+            WeatherContract.WeatherEntry.STATS_AVG_PRESSURE,
+            WeatherContract.WeatherEntry.STATS_MIN_WIND_SPEED,
+            WeatherContract.WeatherEntry.STATS_MAX_WIND_SPEED,
+            WeatherContract.WeatherEntry.STATS_AVG_WIND_SPEED));
+    //location_id = ? AND date >= ?
+    static final String sHistoryLocationSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? ";
 
     static {
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -62,7 +148,26 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    // Only as many locations as anyone tracks
+    private static final int MAX_CACHED_LOCATION_IDS = 16;
+
     private WeatherDbHelper mOpenHelper;
+    // null below API 11, where the cache can't copy cursors
+    private WeatherQueryCache mQueryCache;
+
+    // Notifications held back by the batch running on the current thread, or null outside
+    // applyBatch.
+    private final ThreadLocal<ChangeNotificationBatch> mDeferredNotifications =
+            new ThreadLocal<ChangeNotificationBatch>();
+    private final AtomicInteger mSuppressedNotificationCount = new AtomicInteger();
+    // The weather INSERT compiled for the batch running on the current thread, if it has
+    // inserted any weather yet.
+    private final ThreadLocal<WeatherInsertStatement> mBatchInsertStatement =
+            new ThreadLocal<WeatherInsertStatement>();
+    // location_setting -> _id of the locations upserted since the location table last changed
+    // any other way
+    private final LruCache<String, Long> mLocationIds =
+            new LruCache<String, Long>(MAX_CACHED_LOCATION_IDS);
 
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
@@ -84,14 +189,33 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT,
+                LOCATION_UPSERT);
         return matcher;
     }
 
+    /**
+     * @return {@code startDate}, moved up past the after parameter of {@code uri} if it has one
+     */
+    private static long applyAfterDate(Uri uri, long startDate) {
+        Long afterDate = WeatherContract.getAfterDateFromUri(uri);
+        // The rows dated after a date are those from just past it
+        return afterDate == null ? startDate : Math.max(startDate, afterDate + 1);
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long startDate = applyAfterDate(uri, WeatherContract.WeatherEntry.getStartDateFromUri(uri));
 
         String[] selectionArgs;
         String selection;
@@ -110,7 +234,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.getLimitFromUri(uri)
         );
     }
 
@@ -129,6 +254,87 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private static String aggregate(String function, String expression, String alias) {
+        return function + "(" + expression + ") AS " + alias + ", ";
+    }
+
+    /**
+     * Computes the stats of a location's days in SQLite, so that only their single row crosses
+     * the provider boundary.  The days are read off weather_location_date_idx by location id,
+     * which usually comes from memory, so there is no join.
+     */
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        String sql = sWeatherStatsQuery;
+        if (projection != null) {
+            StringBuilder columns = new StringBuilder();
+            for (String column : projection) {
+                if (!sWeatherStatsColumns.contains(column)) {
+                    throw new IllegalArgumentException("Unknown stats column " + column);
+                }
+                columns.append(columns.length() > 0 ? ", " : "").append(column);
+            }
+            sql = "SELECT " + columns + " FROM (" + sql + ")";
+        }
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = getLocationId(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        return db.rawQuery(sql, new String[]{
+                Long.toString(locationId),
+                Long.toString(WeatherContract.WeatherEntry.getStatsStartFromUri(uri)),
+                Long.toString(WeatherContract.WeatherEntry.getStatsEndFromUri(uri))});
+    }
+
+    private Cursor getWeatherByLocation(Uri uri, String[] projection, String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+            case WEATHER_STATS:
+                return getWeatherStats(uri, projection);
+            default:
+                return getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+    }
+
+    private Cursor getWeatherByLocationThroughCache(Uri uri, String[] projection, String sortOrder) {
+        if (mQueryCache == null) {
+            return getWeatherByLocation(uri, projection, sortOrder);
+        }
+        // These Uris ignore the selection, so the Uri, projection and order identify the result
+        String key = WeatherQueryCache.keyFor(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        return mQueryCache.put(key, generation, getWeatherByLocation(uri, projection, sortOrder));
+    }
+
+    /**
+     * Reads a location's hourly rows straight off the table's (location_id, date) key.  The
+     * location is resolved to its id first, usually from memory, so the query needs no join.
+     */
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = getLocationId(db,
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri));
+        return db.query(WeatherContract.HourlyEntry.TABLE_NAME,
+                projection,
+                sHourlyLocationRangeSelection,
+                new String[]{Long.toString(locationId),
+                        Long.toString(applyAfterDate(uri,
+                                WeatherContract.HourlyEntry.getStartFromUri(uri))),
+                        Long.toString(WeatherContract.HourlyEntry.getEndFromUri(uri))},
+                null,
+                null,
+                sortOrder,
+                WeatherContract.getLimitFromUri(uri)
+        );
+    }
+
+    WeatherQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
@@ -136,6 +342,9 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mQueryCache = new WeatherQueryCache();
+        }
         return true;
     }
 
@@ -153,13 +362,22 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_STATS:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_UPSERT:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,14 +390,13 @@ public class WeatherProvider extends ContentProvider {
         // and query the database accordingly.
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
+            // "weather/*/stats"
+            case WEATHER_STATS:
             // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER_WITH_LOCATION_AND_DATE:
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherByLocationThroughCache(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -195,6 +412,55 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+                long locationId = getLocationId(db,
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri));
+                retCursor = db.query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        sHistoryLocationSelection,
+                        new String[]{Long.toString(locationId),
+                                Long.toString(applyAfterDate(uri, Long.MIN_VALUE))},
+                        null,
+                        null,
+                        sortOrder,
+                        WeatherContract.getLimitFromUri(uri)
+                );
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
             // "location"
             case LOCATION: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -227,14 +493,21 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = insertWeather(db, values);
                 if (_id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                // Rows have no _id, so their Uri is the table's
+                if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values) != -1)
+                    returnUri = WeatherContract.HourlyEntry.CONTENT_URI;
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if (_id > 0)
@@ -243,13 +516,116 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case LOCATION_UPSERT: {
+                // Notifies by itself, and only if the location is new
+                long _id = upsertLocation(db, values);
+                if (_id > 0)
+                    return WeatherContract.LocationEntry.buildLocationUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * Inserts a location unless one with the same location setting is already stored.
+     * <p>
+     * The INSERT OR IGNORE finds out whether the location exists by trying to add it, so a new
+     * location costs one trip through the location table rather than a lookup and then an
+     * insert.  Only a location that was already there is looked up, and its id is remembered
+     * so the next sync doesn't touch the table at all.
+     *
+     * @return the row ID of the location, or -1 if it couldn't be inserted
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            return -1;
+        }
+        Long cachedId = mLocationIds.get(locationSetting);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        long _id;
+        boolean inserted;
+        db.beginTransaction();
+        try {
+            _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            inserted = _id != -1;
+            if (!inserted) {
+                // Either already there, or ignored for some other reason, such as a missing column
+                _id = queryLocationId(db, locationSetting);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (_id == -1) {
+            return -1;
+        }
+        // A batch that rolls back afterwards forgets every id, see applyBatch
+        mLocationIds.put(locationSetting, _id);
+        if (inserted) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return _id;
+    }
+
+    /**
+     * @return the row ID of the location with {@code locationSetting}, or -1 if there is none
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Long cachedId = mLocationIds.get(locationSetting);
+        if (cachedId != null) {
+            return cachedId;
+        }
+        long _id = queryLocationId(db, locationSetting);
+        if (_id != -1) {
+            mLocationIds.put(locationSetting, _id);
+        }
+        return _id;
+    }
+
+    private static long queryLocationId(SQLiteDatabase db, String locationSetting) {
+        try {
+            return DatabaseUtils.longForQuery(db,
+                    "SELECT " + WeatherContract.LocationEntry._ID +
+                            " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                            " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting});
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    private long insertWeather(SQLiteDatabase db, ContentValues values) {
+        if (mDeferredNotifications.get() != null) {
+            // Inside applyBatch, so the statement can be compiled once for all of the batch
+            WeatherInsertStatement insertStatement = mBatchInsertStatement.get();
+            if (insertStatement == null) {
+                insertStatement = new WeatherInsertStatement(db);
+                mBatchInsertStatement.set(insertStatement);
+            }
+            if (insertStatement.bind(values)) {
+                try {
+                    return insertStatement.executeInsert();
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Error inserting " + values, e);
+                    return -1;
+                }
+            }
+        }
+        normalizeDate(values);
+        return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -262,16 +638,25 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                mLocationIds.evictAll();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -297,15 +682,20 @@ public class WeatherProvider extends ContentProvider {
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocationIds.evictAll();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -318,25 +708,210 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherInsertStatement insertStatement = new WeatherInsertStatement(db);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id;
+                        if (insertStatement.bind(value)) {
+                            try {
+                                _id = insertStatement.executeInsert();
+                            } catch (SQLException e) {
+                                // Skip the row, just like db.insert() does
+                                Log.e(LOG_TAG, "Error inserting " + value, e);
+                                _id = -1;
+                            }
+                        } else {
+                            normalizeDate(value);
+                            _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        }
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    insertStatement.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                mOpenHelper.checkpoint(db);
+                notifyChange(uri);
                 return returnCount;
+            case HOURLY_WITH_LOCATION:
+                return bulkInsertHourly(db, uri, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Stores a location's hourly forecast in one transaction, through one compiled statement.
+     * The rows don't need a location key: they all belong to the location in {@code uri}, which
+     * must already be stored.
+     *
+     * @return the number of rows stored
+     */
+    private int bulkInsertHourly(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        long locationId = getLocationId(db,
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri));
+        if (locationId == -1) {
+            Log.e(LOG_TAG, "No location for " + uri);
+            return 0;
+        }
+        int returnCount = 0;
+        db.beginTransaction();
+        HourlyInsertStatement insertStatement = new HourlyInsertStatement(db);
+        try {
+            for (ContentValues value : values) {
+                if (!insertStatement.bind(locationId, value)) {
+                    Log.e(LOG_TAG, "Incomplete row " + value);
+                    continue;
+                }
+                try {
+                    insertStatement.executeInsert();
+                    returnCount++;
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Error inserting " + value, e);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insertStatement.close();
+            db.endTransaction();
+        }
+        mOpenHelper.checkpoint(db);
+        if (returnCount > 0) {
+            notifyChange(uri);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Applies the batch in a single transaction, so unless it yields, either every operation
+     * lands or none does.  The change notifications the operations would each have sent are held
+     * back until the transaction has committed, and each changed Uri is then notified once (see
+     * {@link ChangeNotificationBatch}).
+     * <p>
+     * An operation built with {@link ContentProviderOperation.Builder#withYieldAllowed} marks a
+     * point where the transaction may be committed early to let another writer in, if one is
+     * waiting.  The operations between two such points always commit together.  What a yield
+     * commits stays committed even if a later operation fails, so its notifications are sent
+     * at the yield.  The rest are sent when the batch ends, whether it succeeded or not.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeNotificationBatch notifications = new ChangeNotificationBatch();
+        mDeferredNotifications.set(notifications);
+        ContentProviderResult[] results;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            final int numOperations = operations.size();
+            results = new ContentProviderResult[numOperations];
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && yieldIfContended(db)) {
+                    // Readers may see everything so far now, so tell them
+                    invalidateQueryCache();
+                    sendNotifications(notifications);
+                    notifications = new ChangeNotificationBatch();
+                    mDeferredNotifications.set(notifications);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            if (!successful) {
+                // Locations upserted by the batch may have been rolled back with it
+                mLocationIds.evictAll();
+            }
+            mDeferredNotifications.set(null);
+            WeatherInsertStatement insertStatement = mBatchInsertStatement.get();
+            if (insertStatement != null) {
+                insertStatement.close();
+                mBatchInsertStatement.set(null);
+            }
+            // Readers may have cached what was there before the batch committed.
+            invalidateQueryCache();
+            // After a failure these cover rows that were rolled back, and observers just requery
+            // what they already have.  Sending them anyway keeps every deferred notification
+            // sent or counted, whatever the outcome.
+            sendNotifications(notifications);
+        }
+        mOpenHelper.checkpoint(db);
+        return results;
+    }
+
+    /**
+     * Commits the batch transaction so far and starts a new one, if another thread is waiting to
+     * write.
+     *
+     * @return true if it did
+     */
+    boolean yieldIfContended(SQLiteDatabase db) {
+        return db.yieldIfContendedSafely();
+    }
+
+    private void sendNotifications(ChangeNotificationBatch notifications) {
+        notifications.send(getContext().getContentResolver());
+        mSuppressedNotificationCount.addAndGet(notifications.getSuppressedCount());
+    }
+
+    /**
+     * Serves {@link WeatherContract#METHOD_APPLY_RETENTION}, see {@link WeatherRetention}.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_APPLY_RETENTION.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherRetention retention = new WeatherRetention(WeatherRetention.Policy.fromExtras(extras));
+        retention.run(db, WeatherContract.normalizeDate(System.currentTimeMillis()));
+        mOpenHelper.checkpoint(db);
+
+        if (retention.rolledUpRows > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (retention.rolledUpRows > 0 || retention.expiredHistoryRows > 0) {
+            notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+        if (retention.deletedHourlyRows > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.RESULT_ROLLED_UP_ROWS, retention.rolledUpRows);
+        return result;
+    }
+
+    private void notifyChange(Uri uri) {
+        invalidateQueryCache();
+        ChangeNotificationBatch deferred = mDeferredNotifications.get();
+        if (deferred != null) {
+            deferred.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return how many change notifications batches have left out so far, since one they did send
+     * already covered them
+     */
+    int getSuppressedNotificationCount() {
+        return mSuppressedNotificationCount.get();
+    }
+
+    private void invalidateQueryCache() {
+        if (mQueryCache != null) {
+            mQueryCache.invalidate();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the results of recent weather-by-location queries in memory.
+ * <p>
+ * Right after a sync, the forecast list, both widgets, Muzei and the notification all ask for the
+ * same forecast within a second or so.  The first of them reads it from the database and the
+ * rest get a copy of that result.  Each caller gets its own cursor over the shared rows, so
+ * nobody sees anyone else's position and nobody can change the cached rows.
+ * <p>
+ * Any write to the provider empties the cache.  Writes also bump a generation counter, and a
+ * result is only stored if no write happened while it was being read, so a query that raced a
+ * write can't put stale rows back.
+ * <p>
+ * Copying a row needs {@link Cursor#getType(int)}, so the cache is only used on API 11+.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class WeatherQueryCache {
+
+    // Results larger than this are passed through uncached.  Two weeks of forecast for a
+    // location is well under it.
+    static final int MAX_ROWS_PER_RESULT = 64;
+    // The cache is sized in rows rather than entries.
+    private static final int MAX_CACHED_ROWS = 256;
+
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_CACHED_ROWS) {
+        @Override
+        protected int sizeOf(String key, Result result) {
+            return Math.max(result.rows.length, 1);
+        }
+    };
+
+    // guarded by this
+    private long mGeneration;
+
+    static String keyFor(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a fresh cursor over the cached result for {@code key}, or null if there is none
+     */
+    Cursor get(String key) {
+        Result result = mResults.get(key);
+        return result == null ? null : result.newCursor();
+    }
+
+    /**
+     * Read this before querying the database, and pass it to {@link #put}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the rows of {@code cursor}, which was read at {@code generation}.
+     *
+     * @return the cursor to hand to the caller instead of {@code cursor}, which may have been
+     * closed
+     */
+    Cursor put(String key, long generation, Cursor cursor) {
+        if (cursor == null || cursor.getCount() > MAX_ROWS_PER_RESULT) {
+            return cursor;
+        }
+        Result result = Result.copyOf(cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        return result.newCursor();
+    }
+
+    /**
+     * Drops every cached result.  Call it after each write has been committed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    int hitCount() {
+        return mResults.hitCount();
+    }
+
+    private static final class Result {
+        final String[] columnNames;
+        final Object[][] rows;
+
+        private Result(String[] columnNames, Object[][] rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        static Result copyOf(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columnNames.length];
+                for (int column = 0; column < row.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                    }
+                }
+                rows[i] = row;
+            }
+            return new Result(columnNames, rows);
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(columnNames, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Decides which rows the weather database keeps, and rolls the rest up into history.
+ * <p>
+ * Raw rows, the daily and 3 hourly forecast, are kept for {@link Policy#rawDays} days before
+ * today, and at most {@link Policy#maxRawRowsPerLocation} days per location.  Only days before
+ * today count as excess, so a cap smaller than the forecast never rolls up today or a forecast
+ * day.  A day that falls out of either is folded into one history row: its min and max, and the mean of its 3 hourly
+ * temperatures if we have them, or else the mean of its min and max.  History rows are kept for
+ * {@link Policy#historyDays} days.
+ * <p>
+ * Every step works through its rows {@link Policy#chunkSize} at a time, each chunk in its own
+ * short transaction, so a large backlog (after a long time offline, say) never holds the write
+ * lock for long.
+ */
+class WeatherRetention {
+
+    // A day can be rolled up twice, when a past date is stored again or the cap is lowered, and
+    // the later roll up comes from the newer forecast, so it replaces the history row
+    private static final String ROLL_UP_SQL = "INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_DATE + ", " +
+            HistoryEntry.COLUMN_WEATHER_ID + ", " +
+            HistoryEntry.COLUMN_MIN_TEMP + ", " +
+            HistoryEntry.COLUMN_MAX_TEMP + ", " +
+            HistoryEntry.COLUMN_AVG_TEMP + ", " +
+            HistoryEntry.COLUMN_HUMIDITY + ", " +
+            HistoryEntry.COLUMN_PRESSURE + ", " +
+            HistoryEntry.COLUMN_WIND_SPEED + ") " +
+            "SELECT w." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            "w." + WeatherEntry.COLUMN_DATE + ", " +
+            "w." + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            "w." + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            "w." + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            // The steps of the day come off the hourly table's key
+            "COALESCE((SELECT AVG(h." + HourlyEntry.COLUMN_TEMP + ") FROM " +
+            HourlyEntry.TABLE_NAME + " h WHERE h." + HourlyEntry.COLUMN_LOC_KEY + " = w." +
+            WeatherEntry.COLUMN_LOC_KEY + " AND h." + HourlyEntry.COLUMN_DATE + " >= w." +
+            WeatherEntry.COLUMN_DATE + " AND h." + HourlyEntry.COLUMN_DATE + " < w." +
+            WeatherEntry.COLUMN_DATE + " + " + DateUtils.DAY_IN_MILLIS + "), " +
+            "(w." + WeatherEntry.COLUMN_MIN_TEMP + " + w." + WeatherEntry.COLUMN_MAX_TEMP + ") / 2), " +
+            "w." + WeatherEntry.COLUMN_HUMIDITY + ", " +
+            "w." + WeatherEntry.COLUMN_PRESSURE + ", " +
+            "w." + WeatherEntry.COLUMN_WIND_SPEED + " " +
+            "FROM " + WeatherEntry.TABLE_NAME + " w WHERE w." + WeatherEntry._ID + " IN ";
+
+    // Days before the cutoff, oldest first, off the UNIQUE (date, location_id) index
+    private static final String EXPIRED_DAYS_SQL = "SELECT " + WeatherEntry._ID +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_DATE + " < ?" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " LIMIT ?";
+
+    // Days before today with at least the cap of newer days for the same location
+    private static final String EXCESS_DAYS_SQL = "SELECT w." + WeatherEntry._ID +
+            " FROM " + WeatherEntry.TABLE_NAME + " w" +
+            " WHERE w." + WeatherEntry.COLUMN_DATE + " < ?" +
+            " AND (SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME + " n" +
+            " WHERE n." + WeatherEntry.COLUMN_LOC_KEY + " = w." + WeatherEntry.COLUMN_LOC_KEY +
+            " AND n." + WeatherEntry.COLUMN_DATE + " > w." + WeatherEntry.COLUMN_DATE + ") >= CAST(? AS INTEGER)" +
+            " ORDER BY w." + WeatherEntry.COLUMN_DATE + " LIMIT ?";
+
+    /**
+     * What to keep.  Any value can be overridden by the extras of
+     * {@link WeatherContract#METHOD_APPLY_RETENTION}.
+     */
+    static final class Policy {
+        static final int DEFAULT_RAW_DAYS = 0;
+        static final int DEFAULT_MAX_RAW_ROWS_PER_LOCATION = 32;
+        static final int DEFAULT_HISTORY_DAYS = 365;
+        static final int DEFAULT_CHUNK_SIZE = 50;
+
+        final int rawDays;
+        final int maxRawRowsPerLocation;
+        final int historyDays;
+        final int chunkSize;
+
+        Policy(int rawDays, int maxRawRowsPerLocation, int historyDays, int chunkSize) {
+            if (rawDays < 0 || maxRawRowsPerLocation < 1 || historyDays < 0 || chunkSize < 1) {
+                throw new IllegalArgumentException("Invalid retention policy");
+            }
+            this.rawDays = rawDays;
+            this.maxRawRowsPerLocation = maxRawRowsPerLocation;
+            this.historyDays = historyDays;
+            this.chunkSize = chunkSize;
+        }
+
+        static Policy fromExtras(Bundle extras) {
+            if (extras == null) {
+                extras = Bundle.EMPTY;
+            }
+            return new Policy(
+                    extras.getInt(WeatherContract.EXTRA_RAW_DAYS, DEFAULT_RAW_DAYS),
+                    extras.getInt(WeatherContract.EXTRA_MAX_RAW_ROWS_PER_LOCATION,
+                            DEFAULT_MAX_RAW_ROWS_PER_LOCATION),
+                    extras.getInt(WeatherContract.EXTRA_HISTORY_DAYS, DEFAULT_HISTORY_DAYS),
+                    extras.getInt(WeatherContract.EXTRA_CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+        }
+    }
+
+    private final Policy mPolicy;
+
+    // Counts of the last run
+    int rolledUpRows;
+    int deletedHourlyRows;
+    int expiredHistoryRows;
+
+    WeatherRetention(Policy policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * Applies the policy.  Must not be called inside a transaction, or the chunks would all
+     * end up in that one.
+     *
+     * @param today the normalized date of today
+     */
+    void run(SQLiteDatabase db, long today) {
+        long rawCutoff = today - mPolicy.rawDays * DateUtils.DAY_IN_MILLIS;
+        long historyCutoff = today - mPolicy.historyDays * DateUtils.DAY_IN_MILLIS;
+        rolledUpRows = 0;
+        deletedHourlyRows = 0;
+        expiredHistoryRows = 0;
+
+        // Roll up before the hourly rows go, since the history's means come from them
+        int chunk;
+        do {
+            chunk = rollUpChunk(db, EXPIRED_DAYS_SQL, Long.toString(rawCutoff));
+            rolledUpRows += chunk;
+        } while (chunk == mPolicy.chunkSize);
+        do {
+            chunk = rollUpChunk(db, EXCESS_DAYS_SQL, Long.toString(today),
+                    Integer.toString(mPolicy.maxRawRowsPerLocation));
+            rolledUpRows += chunk;
+        } while (chunk == mPolicy.chunkSize);
+
+        do {
+            chunk = deleteChunk(db, HourlyEntry.TABLE_NAME, HourlyEntry.COLUMN_DATE, rawCutoff);
+            deletedHourlyRows += chunk;
+        } while (chunk == mPolicy.chunkSize);
+        do {
+            chunk = deleteChunk(db, HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DATE, historyCutoff);
+            expiredHistoryRows += chunk;
+        } while (chunk == mPolicy.chunkSize);
+    }
+
+    /**
+     * Moves up to a chunk of the weather rows picked by {@code selectIdsSql} into history.
+     *
+     * @param args the arguments of {@code selectIdsSql}, but for its last, the chunk size
+     * @return the number of rows moved
+     */
+    private int rollUpChunk(SQLiteDatabase db, String selectIdsSql, String... args) {
+        String[] selectionArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, selectionArgs, 0, args.length);
+        selectionArgs[args.length] = Integer.toString(mPolicy.chunkSize);
+        db.beginTransaction();
+        try {
+            String ids = selectIds(db, selectIdsSql, selectionArgs);
+            if (ids == null) {
+                db.setTransactionSuccessful();
+                return 0;
+            }
+            db.execSQL(ROLL_UP_SQL + ids);
+            int count = db.delete(WeatherEntry.TABLE_NAME, WeatherEntry._ID + " IN " + ids, null);
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes up to a chunk of the rows of {@code table} dated before {@code cutoff}.
+     *
+     * @return the number of rows deleted
+     */
+    private int deleteChunk(SQLiteDatabase db, String table, String dateColumn, long cutoff) {
+        // A single statement is its own transaction
+        return db.delete(table, "rowid IN (SELECT rowid FROM " + table +
+                        " WHERE " + dateColumn + " < ? LIMIT ?)",
+                new String[]{Long.toString(cutoff), Integer.toString(mPolicy.chunkSize)});
+    }
+
+    /**
+     * @return the ids selected by {@code sql} as a parenthesized list, or null if there are none
+     */
+    private static String selectIds(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            StringBuilder ids = new StringBuilder("(");
+            do {
+                ids.append(ids.length() > 1 ? "," : "").append(cursor.getLong(0));
+            } while (cursor.moveToNext());
+            return ids.append(')').toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Network layer for the OpenWeatherMap forecast requests.
+ * <p>
+ * Responses are requested compressed and decoded incrementally as they are read.  Connections are
+ * never disconnected: each body is read to the end and closed instead, which hands the socket
+ * back to HttpURLConnection's keep-alive pool so that back-to-back syncs (a manual refresh
+ * followed by a periodic one) skip the TCP handshake.
+ */
+class ForecastHttpClient {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    // Five days in 3 hour steps
+    private static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * @return the daily forecast request for a location setting
+     */
+    static Uri buildDailyForecastUri(String locationQuery) {
+        return Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * @return the 3 hourly forecast request for a location setting
+     */
+    static Uri buildHourlyForecastUri(String locationQuery) {
+        return Uri.parse(HOURLY_FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Issues a GET for {@code uri}.
+     *
+     * @param cachedResponse if not null, the request is made conditional on this response
+     * @return the response, which must be closed
+     * @throws IOException if the request fails or the server answers with an error
+     */
+    Response get(Uri uri, ForecastResponseCache.Entry cachedResponse) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Setting this ourselves turns off any transparent decompression, so decoding the body
+        // is up to Response.
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (cachedResponse != null) {
+            // Let the server tell us the forecast hasn't changed instead of resending it
+            cachedResponse.addConditionalHeaders(connection);
+        }
+
+        int code = connection.getResponseCode();
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            // Read the error body out so the connection can still be reused.
+            discard(connection.getErrorStream());
+            throw new IOException("HTTP " + code + " for forecast request");
+        }
+        return new Response(connection, code);
+    }
+
+    private static void discard(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        } catch (IOException e) {
+            // The connection is unusable anyway; closing it below is all we can do.
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    /**
+     * A forecast response.  Closing it drains the body so that its connection can be reused.
+     */
+    static final class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mBody;
+
+        private Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        int getCode() {
+            return mCode;
+        }
+
+        boolean isNotModified() {
+            return mCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decompressed body, or null if the response has none
+         */
+        InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = mConnection.getInputStream();
+                if (raw == null) {
+                    return null;
+                }
+                String encoding = mConnection.getContentEncoding();
+                if ("gzip".equalsIgnoreCase(encoding)) {
+                    mBody = new GZIPInputStream(raw, BUFFER_SIZE);
+                } else if ("deflate".equalsIgnoreCase(encoding)) {
+                    mBody = new InflaterInputStream(raw);
+                } else {
+                    mBody = raw;
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (mBody != null) {
+                discard(mBody);
+            } else {
+                try {
+                    discard(mConnection.getInputStream());
+                } catch (IOException e) {
+                    // nothing was read, so there is nothing to hand back
+                }
+            }
+        }
+    }
+}
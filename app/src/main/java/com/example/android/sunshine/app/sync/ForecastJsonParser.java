@@ -0,0 +1,193 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ * <p>
+ * Tokens are read straight off the network stream and every day is handed to the
+ * {@link Callback} as soon as it has been decoded, so the response never has to be held in
+ * memory as a String or as a full {@link org.json.JSONObject} tree.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the pieces of the forecast in the order they appear in the response.
+     */
+    interface Callback {
+        void onMessageCode(int code);
+
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param index         position of the day in the "list" array, 0 being today
+         * @param weatherValues the decoded day, without the date or location key
+         */
+        void onDay(int index, ContentValues weatherValues);
+    }
+
+    /**
+     * Parses the forecast read from {@code in}.  The reader is not closed.
+     *
+     * @throws JSONException if the response is not a well-formed forecast
+     * @throws IOException   if reading from the underlying stream fails
+     */
+    void parse(Reader in, Callback callback) throws JSONException, IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is a number on success but a string on some error responses;
+                    // nextInt() accepts both.
+                    callback.onMessageCode(reader.nextInt());
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, callback);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw OwmJsonReader.newJSONException(e);
+        }
+    }
+
+    private void readCity(JsonReader reader, Callback callback) throws IOException, JSONException {
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("Incomplete city in forecast response");
+        }
+        callback.onCity(cityName, lat, lon);
+    }
+
+    private void readDays(JsonReader reader, Callback callback) throws IOException, JSONException {
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            callback.onDay(index++, readDay(reader));
+        }
+        reader.endArray();
+    }
+
+    private ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, reader.nextInt());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                OwmJsonReader.readCondition(reader, weatherValues,
+                        WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_PRESSURE)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_HUMIDITY)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_DEGREES)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)) {
+            throw new JSONException("Incomplete day in forecast response");
+        }
+        return weatherValues;
+    }
+}
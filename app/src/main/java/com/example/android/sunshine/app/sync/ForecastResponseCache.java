@@ -0,0 +1,255 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * On-disk cache of forecast responses, kept under the app's cache directory and keyed by the
+ * request Uri.
+ * <p>
+ * Each entry holds the validators the server sent (ETag and Last-Modified) together with the
+ * response body.  The validators turn the next download of the same forecast into a conditional
+ * request, so an unchanged forecast costs a 304 instead of a full response and a re-parse.
+ * The body lets the sync rebuild its rows from a 304 when the database no longer has them.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+
+    private final File mDirectory;
+
+    ForecastResponseCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * @return the cached response for {@code uri}, or null if there is none that can be
+     * revalidated.
+     */
+    Entry get(Uri uri) {
+        String key = keyFor(uri);
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        if (!body.isFile() || !meta.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(meta);
+            properties.load(in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unreadable cache entry for " + key, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        String etag = properties.getProperty(KEY_ETAG);
+        String lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new Entry(etag, lastModified, body);
+    }
+
+    /**
+     * Starts writing a fresh response for {@code uri}.  Nothing replaces the current entry until
+     * {@link Editor#commit(String, String)} is called.
+     */
+    Editor edit(Uri uri) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        return new Editor(keyFor(uri));
+    }
+
+    private static String keyFor(Uri uri) {
+        // The request Uri carries the API key, so it is hashed rather than written to disk.
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(uri.toString().getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(uri.toString().hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing cache file", e);
+            }
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        final String etag;
+        final String lastModified;
+        private final File mBody;
+
+        private Entry(String etag, String lastModified, File body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            mBody = body;
+        }
+
+        /**
+         * Asks the server to only send the forecast if it differs from this entry.
+         */
+        void addConditionalHeaders(HttpURLConnection connection) {
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        InputStream openBody() throws IOException {
+            return new FileInputStream(mBody);
+        }
+    }
+
+    /**
+     * Copies a response body into the cache while it is being read by the parser.
+     */
+    final class Editor {
+        private final String mKey;
+        private final File mTmpBody;
+        private OutputStream mOut;
+        private InputStream mIn;
+
+        private Editor(String key) throws IOException {
+            mKey = key;
+            mTmpBody = new File(mDirectory, key + TMP_SUFFIX);
+            mOut = new FileOutputStream(mTmpBody);
+        }
+
+        /**
+         * @return a stream that reads from {@code in} and copies every byte into the cache.
+         */
+        InputStream wrap(InputStream in) {
+            mIn = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1 && mOut != null) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0 && mOut != null) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+            return mIn;
+        }
+
+        /**
+         * Drains whatever the parser left unread and stores the body along with the response's
+         * validators.  Responses without validators are dropped, since they could never be
+         * revalidated.
+         *
+         * @param etag         the response's ETag header, or null
+         * @param lastModified the response's Last-Modified header, or null
+         */
+        void commit(String etag, String lastModified) throws IOException {
+            if (etag == null && lastModified == null) {
+                abort();
+                return;
+            }
+
+            finishBody();
+
+            Properties properties = new Properties();
+            if (etag != null) {
+                properties.setProperty(KEY_ETAG, etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+            }
+
+            File body = new File(mDirectory, mKey + BODY_SUFFIX);
+            File meta = new File(mDirectory, mKey + META_SUFFIX);
+            // Drop the old validators first so a half-written entry can never pair them with the
+            // new body.
+            meta.delete();
+            if (!mTmpBody.renameTo(body)) {
+                mTmpBody.delete();
+                throw new IOException("Unable to store cached forecast " + mKey);
+            }
+            OutputStream out = new FileOutputStream(meta);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Reads whatever the parser left unread through the wrapper, so that the copy is complete
+         * before the response stream is closed.  Calling it again does nothing.
+         */
+        void finishBody() throws IOException {
+            if (mOut == null) {
+                return;
+            }
+            if (mIn != null) {
+                byte[] buffer = new byte[1024];
+                while (mIn.read(buffer, 0, buffer.length) != -1) {
+                    // the wrapper copies what it reads
+                }
+            }
+            mOut.close();
+            mOut = null;
+        }
+
+        /**
+         * Throws the partially written body away, leaving the current entry untouched.
+         */
+        void abort() {
+            closeQuietly(mOut);
+            mOut = null;
+            mTmpBody.delete();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser for the OpenWeatherMap 3 hourly forecast response.  Like
+ * {@link ForecastJsonParser}, it hands each step to the {@link Callback} as soon as it has been
+ * read off the stream.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class HourlyForecastJsonParser {
+
+    // Each 3 hour step is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+    // Start of the step, in seconds since the epoch
+    private static final String OWM_DATE = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object.
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind speed and direction are children of the "wind" object.
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the pieces of the forecast in the order they appear in the response.
+     */
+    interface Callback {
+        void onMessageCode(int code);
+
+        /**
+         * @param hourlyValues the decoded step, without the location key
+         */
+        void onStep(ContentValues hourlyValues);
+    }
+
+    /**
+     * Parses the forecast read from {@code in}.  The reader is not closed.
+     *
+     * @throws JSONException if the response is not a well-formed forecast
+     * @throws IOException   if reading from the underlying stream fails
+     */
+    void parse(Reader in, Callback callback) throws JSONException, IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is a string in this response; nextInt() accepts it as well.
+                    callback.onMessageCode(reader.nextInt());
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        callback.onStep(readStep(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw OwmJsonReader.newJSONException(e);
+        }
+    }
+
+    private ContentValues readStep(JsonReader reader) throws IOException, JSONException {
+        ContentValues hourlyValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATE.equals(name)) {
+                hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DATE, reader.nextLong() * 1000);
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, reader.nextDouble());
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                OwmJsonReader.readCondition(reader, hourlyValues,
+                        WeatherContract.HourlyEntry.COLUMN_SHORT_DESC,
+                        WeatherContract.HourlyEntry.COLUMN_WEATHER_ID);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_DATE)
+                || !hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_TEMP)
+                || !hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_PRESSURE)
+                || !hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_HUMIDITY)
+                || !hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC)
+                || !hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID)) {
+            throw new JSONException("Incomplete step in hourly forecast response");
+        }
+        // Calm steps may leave the wind out
+        if (!hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED)) {
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, 0.0);
+        }
+        if (!hourlyValues.containsKey(WeatherContract.HourlyEntry.COLUMN_DEGREES)) {
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 0.0);
+        }
+        return hourlyValues;
+    }
+}
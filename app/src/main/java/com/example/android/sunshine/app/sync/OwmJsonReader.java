@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * What the pull parsers of the OpenWeatherMap responses read the same way: the condition of a
+ * day or step, and the errors a malformed response raises.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+final class OwmJsonReader {
+
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private OwmJsonReader() {
+    }
+
+    /**
+     * Reads the "weather" array of a day or step.  It is usually 1 element long, and only the
+     * first is kept: its description and weather code go into {@code values} under the given
+     * columns.
+     */
+    static void readCondition(JsonReader reader, ContentValues values, String descriptionColumn,
+                              String weatherIdColumn) throws IOException {
+        reader.beginArray();
+        if (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_DESCRIPTION.equals(name)) {
+                        values.put(descriptionColumn, reader.nextString());
+                    } else if (OWM_WEATHER_ID.equals(name)) {
+                        values.put(weatherIdColumn, reader.nextInt());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Wraps what {@link JsonReader} throws for a response that is not the one expected, a
+     * {@link android.util.MalformedJsonException}, an {@link IllegalStateException} or a
+     * {@link NumberFormatException}, so callers only have to handle {@link JSONException}.
+     */
+    static JSONException newJSONException(Exception cause) {
+        JSONException e = new JSONException(cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+}
@@ -3,25 +3,29 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -30,9 +34,9 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
@@ -40,8 +44,8 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
@@ -51,21 +55,30 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
+    // Sync extra asking for every tracked location to be refreshed, not just the preferred one.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS =
+            "com.example.android.sunshine.app.sync.ALL_LOCATIONS";
 
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
@@ -77,6 +90,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Upper bound on concurrent forecast downloads when syncing all locations.
+    private static final int MAX_PARALLEL_FETCHES = 4;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -88,7 +103,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     private static final String[] WEARABLE_DATA_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_DATE
     };
 
     // these indices must match the projection
@@ -96,16 +112,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     private static final int INDEX_MAX_TEMP = 1;
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
-    private static final String CONDITION_ASSET_KEY = "com.example.key.conditionAsset";
-    private static final String HIGH_TEMP_KEY = "com.example.key.highTemp";
-    private static final String LOW_TEMP_KEY = "com.example.key.lowTemp";
+    // WEARABLE_DATA_PROJECTION only
+    private static final int INDEX_WEARABLE_DATE = 3;
+    // The wearable formats and draws these itself, so the item is a few numbers rather than an
+    // image and text
+    private static final String WEATHER_ID_KEY = "com.example.key.weatherId";
+    private static final String HIGH_KEY = "com.example.key.high";
+    private static final String LOW_KEY = "com.example.key.low";
+    private static final String IS_METRIC_KEY = "com.example.key.isMetric";
     private static final String TIMESTAMP_KEY = "com.example.key.timestamp";
     private static final String WEARABLE_DATA_PATH = "/weather-data";
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     private GoogleApiClient mGoogleApiClient;
+    private final ForecastResponseCache mResponseCache;
+    private final ForecastHttpClient mHttpClient = new ForecastHttpClient();
+    private final SyncBackoff mBackoff;
+    private final WearableDedup mWearableDedup;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(context);
+        mBackoff = new SyncBackoff(context);
+        mWearableDedup = new WearableDedup(context);
         mGoogleApiClient = new GoogleApiClient.Builder(context)
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
@@ -134,14 +162,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests made in quick
+     * succession are coalesced into a single sync.
      *
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncRequestCoalescer.getInstance(context)
+                .request(Utility.getPreferredLocation(context), false);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every tracked location immediately,
+     * regardless of the multi-location preference.
+     *
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
+        SyncRequestCoalescer.getInstance(context)
+                .request(Utility.getPreferredLocation(context), true);
+    }
+
+    static void requestSync(Context context, boolean allLocations) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        if (allLocations) {
+            bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        }
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -220,71 +268,122 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         spe.commit();
     }
 
-    private static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
+        long backoffSeconds = mBackoff.getRemainingDelaySeconds(locationQuery);
+        if (backoffSeconds > 0) {
+            Log.d(LOG_TAG, "Sync skipped. Backing off for another " + backoffSeconds + "s");
+            syncResult.delayUntil = getDelayUntil(backoffSeconds);
+            return;
+        }
+
+        SyncRequestCoalescer coalescer = SyncRequestCoalescer.getInstance(getContext());
+        coalescer.onSyncStarted(locationQuery);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && isMultiLocationSync(extras)) {
+                // The hourly forecasts are fetched alongside the daily ones
+                syncAllLocations(locationQuery);
+            } else {
+                performSync(locationQuery);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        && Utility.getLocationStatus(getContext()) == LOCATION_STATUS_OK) {
+                    syncHourlyForecast(locationQuery);
+                }
+            }
+        } finally {
+            coalescer.onSyncFinished(locationQuery);
+        }
+
+        // Every path through performSync leaves its outcome in the location status.
+        @LocationStatus int status = Utility.getLocationStatus(getContext());
+        if (status == LOCATION_STATUS_SERVER_DOWN) {
+            // A soft error: the framework retries, with its own backoff.
+            syncResult.stats.numIoExceptions++;
+        } else if (status == LOCATION_STATUS_SERVER_INVALID) {
+            // A hard error: retrying straight away would just get the same response.
+            syncResult.stats.numParseExceptions++;
+        }
+        long delaySeconds = mBackoff.recordOutcome(locationQuery, status);
+        if (delaySeconds > 0) {
+            Log.d(LOG_TAG, "Sync failed. Backing off for " + delaySeconds + "s");
+            syncResult.delayUntil = getDelayUntil(delaySeconds);
+        }
+    }
+
+    /**
+     * @return the value for {@link SyncResult#delayUntil} that holds syncs off for
+     * {@code delaySeconds}.  The SyncManager reads it as a time in seconds since the epoch, not
+     * as a number of seconds from now.
+     */
+    private static long getDelayUntil(long delaySeconds) {
+        return System.currentTimeMillis() / 1000 + delaySeconds;
+    }
+
+    private void performSync(String locationQuery) {
+        // These need to be declared outside the try/catch
         // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        ForecastHttpClient.Response response = null;
+        Reader reader = null;
+        ForecastResponseCache.Editor cacheEditor = null;
 
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
         try {
             // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
+            Uri builtUri = ForecastHttpClient.buildDailyForecastUri(locationQuery);
+            ForecastResponseCache.Entry cachedResponse = mResponseCache.get(builtUri);
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            response = mHttpClient.get(builtUri, cachedResponse);
+
+            InputStream inputStream;
+            if (cachedResponse != null && response.isNotModified()) {
+                if (hasWeatherForToday(locationQuery)) {
+                    // Nothing changed upstream, so there is nothing to parse, store or fan out.
+                    Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+                    setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                    return;
+                }
+                // The rows are gone, because the retention run deleted them or the user cleared
+                // the app's data, but the forecast is still current, so rebuild them from the
+                // cached copy.
+                inputStream = cachedResponse.openBody();
+            } else {
+                inputStream = response.getBody();
+                if (inputStream == null) {
+                    // Nothing to do.
+                    setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                    return;
+                }
+                cacheEditor = mResponseCache.edit(builtUri);
+                inputStream = cacheEditor.wrap(inputStream);
+            }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Parse the forecast as it comes off the wire rather than buffering it first.
+                reader = new InputStreamReader(inputStream, "UTF-8");
+                if (getWeatherDataFromStream(reader, locationQuery) && cacheEditor != null) {
+                    cacheEditor.commit(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                    cacheEditor = null;
+                }
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
+
+            // Read the input stream into a String
+            StringBuilder buffer = new StringBuilder();
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+            reader = bufferedReader;
 
             String line;
-            while ((line = reader.readLine()) != null) {
+            while ((line = bufferedReader.readLine()) != null) {
                 // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
                 // But it does make debugging a *lot* easier if you print out the completed
                 // buffer for debugging.
-                buffer.append(line + "\n");
+                buffer.append(line).append('\n');
             }
 
             if (buffer.length() == 0) {
@@ -293,7 +392,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                 return;
             }
             forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            if (getWeatherDataFromJson(forecastJsonStr, locationQuery) && cacheEditor != null) {
+                cacheEditor.commit(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                cacheEditor = null;
+            }
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
@@ -304,8 +406,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (cacheEditor != null) {
+                cacheEditor.abort();
+            }
+            if (response != null) {
+                // Closing (rather than disconnecting) keeps the connection alive for the next sync
+                response.close();
             }
             if (reader != null) {
                 try {
@@ -318,14 +424,197 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         return;
     }
 
+    /**
+     * Downloads the 3 hourly forecast of one location and stores it.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void syncHourlyForecast(String locationSetting) {
+        HourlyForecast forecast = fetchHourlyForecast(locationSetting);
+        try {
+            storeHourlyForecast(forecast);
+        } finally {
+            forecast.abortCache();
+        }
+    }
+
+    /**
+     * Downloads and parses the 3 hourly forecast for one location.  The request is conditional,
+     * like the daily one, so an unchanged forecast costs neither a body nor a parse.  This only
+     * reads from the provider, so it can run on a worker thread.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private HourlyForecast fetchHourlyForecast(String locationSetting) {
+        final HourlyForecast forecast = new HourlyForecast(locationSetting);
+        ForecastHttpClient.Response response = null;
+        Reader reader = null;
+        try {
+            Uri builtUri = ForecastHttpClient.buildHourlyForecastUri(locationSetting);
+            ForecastResponseCache.Entry cachedResponse = mResponseCache.get(builtUri);
+            response = mHttpClient.get(builtUri, cachedResponse);
+
+            InputStream inputStream;
+            if (cachedResponse != null && response.isNotModified()) {
+                if (hasHourlyForecast(locationSetting)) {
+                    forecast.notModified = true;
+                    return forecast;
+                }
+                // The rows are gone but the forecast is still current, so rebuild them from the
+                // cached copy.
+                inputStream = cachedResponse.openBody();
+            } else {
+                inputStream = response.getBody();
+                if (inputStream == null) {
+                    forecast.failed = true;
+                    return forecast;
+                }
+                forecast.cacheEditor = mResponseCache.edit(builtUri);
+                forecast.etag = response.getHeader("ETag");
+                forecast.lastModified = response.getHeader("Last-Modified");
+                inputStream = forecast.cacheEditor.wrap(inputStream);
+            }
+
+            reader = new InputStreamReader(inputStream, "UTF-8");
+            new HourlyForecastJsonParser().parse(reader, new HourlyForecastJsonParser.Callback() {
+                @Override
+                public void onMessageCode(int code) {
+                    if (code != HttpURLConnection.HTTP_OK) {
+                        forecast.failed = true;
+                    }
+                }
+
+                @Override
+                public void onStep(ContentValues hourlyValues) {
+                    forecast.steps.add(hourlyValues);
+                }
+            });
+            if (forecast.cacheEditor != null && !forecast.failed) {
+                // The response is closed below, before the rows are stored.
+                forecast.cacheEditor.finishBody();
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error syncing hourly forecast for " + locationSetting, e);
+            forecast.failed = true;
+        } finally {
+            if (forecast.failed) {
+                forecast.abortCache();
+            }
+            if (response != null) {
+                response.close();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return forecast;
+    }
+
+    /**
+     * Stores a fetched hourly forecast in one call, and one transaction, and only then commits
+     * its response to the cache.  The daily forecast is what the location status reports on, so
+     * failures here are only logged: the hourly rows stay as they were until the next sync.
+     */
+    private void storeHourlyForecast(HourlyForecast forecast) {
+        if (forecast.notModified) {
+            Log.d(LOG_TAG, "Hourly Sync Complete. Forecast not modified");
+            return;
+        }
+        if (forecast.failed || forecast.steps.isEmpty()) {
+            Log.w(LOG_TAG, "No hourly forecast for " + forecast.locationSetting);
+            return;
+        }
+        int inserted = getContext().getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.buildHourlyLocation(forecast.locationSetting),
+                forecast.steps.toArray(new ContentValues[forecast.steps.size()]));
+        Log.d(LOG_TAG, "Hourly Sync Complete. " + inserted + " Inserted");
+        if (inserted > 0) {
+            try {
+                forecast.commitToCache();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error caching hourly forecast for " + forecast.locationSetting, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the database holds 3 hourly steps for {@code locationSetting} from now on
+     */
+    private boolean hasHourlyForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithRange(
+                        locationSetting, System.currentTimeMillis(), Long.MAX_VALUE),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the forecast straight off the network stream and stores it.  Each day is decoded
+     * into its ContentValues as the parser reaches it, so the response body is never buffered
+     * into a String or a full JSON tree.
+     *
+     * @return true if the forecast was stored
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean getWeatherDataFromStream(Reader forecastReader, String locationSetting)
+            throws JSONException, IOException {
+        final ArrayList<ContentValues> days = new ArrayList<ContentValues>();
+        final String[] cityName = new String[1];
+        final double[] cityCoord = new double[2];
+        final int[] messageCode = {HttpURLConnection.HTTP_OK};
+
+        new ForecastJsonParser().parse(forecastReader, new ForecastJsonParser.Callback() {
+            @Override
+            public void onMessageCode(int code) {
+                messageCode[0] = code;
+            }
+
+            @Override
+            public void onCity(String name, double lat, double lon) {
+                cityName[0] = name;
+                cityCoord[0] = lat;
+                cityCoord[1] = lon;
+            }
+
+            @Override
+            public void onDay(int index, ContentValues weatherValues) {
+                days.add(weatherValues);
+            }
+        });
+
+        if (!checkMessageCode(messageCode[0])) {
+            return false;
+        }
+        if (cityName[0] == null) {
+            throw new JSONException("No city in forecast response");
+        }
+        return storeWeatherData(locationSetting, cityName[0], cityCoord[0], cityCoord[1], days);
+    }
+
     /**
      * Take the String representing the complete forecast in JSON Format and
      * pull out the data we need to construct the Strings needed for the wireframes.
      * <p>
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * into an Object hierarchy for us.  This is only used on devices without
+     * {@link android.util.JsonReader}; everything newer goes through
+     * {@link #getWeatherDataFromStream(Reader, String)}.
+     *
+     * @return true if the forecast was stored
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
+    private boolean getWeatherDataFromJson(String forecastJsonStr,
                                         String locationSetting)
             throws JSONException {
 
@@ -367,19 +656,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             JSONObject forecastJson = new JSONObject(forecastJsonStr);
 
             // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            if (forecastJson.has(OWM_MESSAGE_CODE)
+                    && !checkMessageCode(forecastJson.getInt(OWM_MESSAGE_CODE))) {
+                return false;
             }
 
             JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
@@ -391,157 +670,560 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            ArrayList<ContentValues> days = new ArrayList<ContentValues>(weatherArray.length());
 
             for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
                 // Get the JSON object representing the day
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
                 // Description is in a child array called "weather", which is 1 element long.
                 // That element also contains a weather code.
                 JSONObject weatherObject =
                         dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
 
                 // Temperatures are in a child object called "temp".  Try not to name variables
                 // "temp" when working with temperature.  It confuses everybody.
                 JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
 
                 ContentValues weatherValues = new ContentValues();
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                // Get weather data for the current day and location to sent it to the data layer.
-                Cursor currentDateCursorForLocation = getContext().getContentResolver().query(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        WEARABLE_DATA_PROJECTION,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
-                                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay)),
-                                String.valueOf(locationId)},
-                        null);
-                if (currentDateCursorForLocation.getCount() > 0) {
-                    sendDataToWearable(currentDateCursorForLocation);
-                }
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(OWM_HUMIDITY));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(OWM_PRESSURE));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(OWM_WINDSPEED));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(OWM_WIND_DIRECTION));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(OWM_MAX));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(OWM_MIN));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(OWM_DESCRIPTION));
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                days.add(weatherValues);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+
+            return storeWeatherData(locationSetting, cityName, cityLatitude, cityLongitude, days);
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return false;
         }
     }
 
-    private void sendDataToWearable(Cursor cursor) {
-        if (cursor.moveToFirst()) {
-            Log.d(LOG_TAG, "Sending data to wearable");
+    /**
+     * Checks the "cod" value of a forecast response.
+     *
+     * @return true if the response carries a forecast, false if the location status has been
+     * set to an error and the response should be dropped.
+     */
+    private boolean checkMessageCode(int errorCode) {
+        @LocationStatus int status = getStatusForMessageCode(errorCode);
+        if (status == LOCATION_STATUS_OK) {
+            return true;
+        }
+        setLocationStatus(getContext(), status);
+        return false;
+    }
+
+    @LocationStatus
+    private static int getStatusForMessageCode(int errorCode) {
+        switch (errorCode) {
+            case HttpURLConnection.HTTP_OK:
+                return LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return LOCATION_STATUS_INVALID;
+            default:
+                return LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+
+    /**
+     * Dates and stores the parsed days, then fans the update out to the wearable, widgets,
+     * Muzei and the notification.  The location and the new days (and, before API 11, the purge
+     * of old days) are written as one batch, so they commit together in a single transaction.
+     * The retention then rolls the old days up into history.
+     *
+     * @param days one ContentValues per forecast day, in order, without the date or location key
+     * @return true if the forecast was stored
+     */
+    private boolean storeWeatherData(String locationSetting, String cityName, double cityLatitude,
+                                     double cityLongitude, List<ContentValues> days) {
+        int julianStartDay = getJulianStartDay();
+
+        // add to database
+        if (!days.isEmpty()) {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+            addWeatherOperations(operations, locationSetting, cityName, cityLatitude, cityLongitude,
+                    days, julianStartDay);
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                addPurgeOperation(operations, julianStartDay);
+            }
+            if (!applyBatch(operations)) {
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return false;
+            }
 
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            int weatherIconId =
-                    Utility.getArtResourceForWeatherCondition(weatherId);
-            Bitmap weatherIcon = BitmapFactory.decodeResource(getContext().getResources(), weatherIconId);
+            sendTodayToWearable(locationSetting);
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                applyRetention();
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + days.size() + " Inserted");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        return true;
+    }
 
-            String highTemp =
-                    Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MAX_TEMP));
-            String lowTemp =
-                    Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MIN_TEMP));
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     * <p>
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
+     *
+     * @return the Julian day the forecasts start at
+     */
+    private static int getJulianStartDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEARABLE_DATA_PATH);
-            putDataMapRequest.getDataMap().putAsset(CONDITION_ASSET_KEY,
-                    createAssetFromBitmap(weatherIcon));
-            putDataMapRequest.getDataMap().putString(HIGH_TEMP_KEY, highTemp);
-            putDataMapRequest.getDataMap().putString(LOW_TEMP_KEY, lowTemp);
-            putDataMapRequest.getDataMap().putLong(TIMESTAMP_KEY, System.currentTimeMillis());
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-            PutDataRequest putDataReq = putDataMapRequest.asPutDataRequest().setUrgent();
-            PendingResult<DataApi.DataItemResult> pendingResult =
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
-            pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                @Override
-                public void onResult(DataApi.DataItemResult dataItemResult) {
-                    if (dataItemResult.getStatus().isSuccess()) {
-                        Log.d(LOG_TAG, "Successfully sent weather data - " + dataItemResult.getStatus().getStatusMessage());
-                    } else {
-                        Log.e(LOG_TAG, "Failed to send weather data item - " + dataItemResult.getStatus().getStatusMessage());
+    /**
+     * Adds the operations that store one location's forecast: an upsert of the location, then
+     * one insert per day, stamped with its UTC date.  The location's id isn't known until the
+     * batch runs, so the days pick it up from the upsert by back reference.  The provider
+     * remembers the ids of the locations it has upserted, so for a location that was synced
+     * before, none of this reads the location table.
+     * <p>
+     * Unless these are the first operations of the batch, the provider may briefly commit and
+     * let another writer in before them; a location's rows always commit together.
+     */
+    private void addWeatherOperations(ArrayList<ContentProviderOperation> operations,
+                                      String locationSetting, String cityName, double lat,
+                                      double lon, List<ContentValues> days, int julianStartDay) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        int locationOperationIndex = operations.size();
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.LocationEntry.CONTENT_UPSERT_URI)
+                .withValues(locationValues)
+                .withYieldAllowed(locationOperationIndex > 0)
+                .build());
+
+        Time dayTime = new Time();
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues weatherValues = days.get(i);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(julianStartDay + i));
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationOperationIndex)
+                    .build());
+        }
+    }
+
+    /**
+     * Adds the delete of every day before today, and of every 3 hour step before today, so we
+     * don't build up an endless history.  This is only for devices that can't call
+     * {@link #applyRetention()}, and so keep no history at all.
+     */
+    private static void addPurgeOperation(ArrayList<ContentProviderOperation> operations,
+                                          int julianStartDay) {
+        Time dayTime = new Time();
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                .withSelection(WeatherContract.HourlyEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay))})
+                .build());
+    }
+
+    /**
+     * Has the provider roll the days before today up into history and trim the raw rows, in
+     * short transactions of its own.  It runs once the new forecast is out to the UI, so it
+     * holds up nothing the user is waiting for.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void applyRetention() {
+        try {
+            Bundle result = getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_APPLY_RETENTION, null, null);
+            if (result != null) {
+                Log.d(LOG_TAG, "Retention applied. " +
+                        result.getInt(WeatherContract.RESULT_ROLLED_UP_ROWS) + " Rolled up");
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error applying retention", e);
+        }
+    }
+
+    /**
+     * Applies {@code operations} in a single provider transaction.
+     *
+     * @return true if the batch committed
+     */
+    private boolean applyBatch(ArrayList<ContentProviderOperation> operations) {
+        try {
+            getContext().getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            return true;
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Log.e(LOG_TAG, "Error storing forecast", e);
+            return false;
+        }
+    }
+
+    private boolean isMultiLocationSync(Bundle extras) {
+        if (extras != null && extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            return true;
+        }
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_sync_all_locations_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_sync_all_locations_default)));
+    }
+
+    /**
+     * @return every location setting in the location table, with the preferred one first
+     */
+    private List<String> getTrackedLocations(String preferredLocation) {
+        Set<String> locationSettings = new LinkedHashSet<String>();
+        locationSettings.add(preferredLocation);
+
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    locationSettings.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ArrayList<String>(locationSettings);
+    }
+
+    /**
+     * Refreshes every tracked location.  The daily and 3 hourly forecasts are downloaded and
+     * parsed concurrently, at most {@link #MAX_PARALLEL_FETCHES} at a time, so the sync takes
+     * about as long as the slowest single location.  All of the daily rows are then written in
+     * one batch, which the provider applies in a single transaction, committing early between
+     * locations only if another writer is waiting, and each location's hourly rows after them.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void syncAllLocations(String preferredLocation) {
+        List<String> locationSettings = getTrackedLocations(preferredLocation);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(locationSettings.size() * 2, MAX_PARALLEL_FETCHES));
+        final PendingDownloads pending = new PendingDownloads();
+        List<Future<LocationForecast>> futures =
+                new ArrayList<Future<LocationForecast>>(locationSettings.size());
+        List<Future<HourlyForecast>> hourlyFutures =
+                new ArrayList<Future<HourlyForecast>>(locationSettings.size());
+        try {
+            // The daily forecasts go first, since they are what the sync reports on
+            for (final String locationSetting : locationSettings) {
+                futures.add(executor.submit(new Callable<LocationForecast>() {
+                    @Override
+                    public LocationForecast call() {
+                        return pending.add(fetchForecast(locationSetting));
                     }
+                }));
+            }
+            for (final String locationSetting : locationSettings) {
+                hourlyFutures.add(executor.submit(new Callable<HourlyForecast>() {
+                    @Override
+                    public HourlyForecast call() {
+                        return pending.add(fetchHourlyForecast(locationSetting));
+                    }
+                }));
+            }
+
+            List<LocationForecast> forecasts = new ArrayList<LocationForecast>(locationSettings.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    forecasts.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + locationSettings.get(i), e);
+                    LocationForecast failed = new LocationForecast(locationSettings.get(i));
+                    failed.status = LOCATION_STATUS_SERVER_DOWN;
+                    forecasts.add(failed);
+                }
+            }
+
+            if (!storeForecasts(forecasts)) {
+                return;
+            }
+            for (LocationForecast forecast : forecasts) {
+                try {
+                    forecast.commitToCache();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error caching forecast for " + forecast.locationSetting, e);
+                }
+            }
+
+            for (int i = 0; i < hourlyFutures.size(); i++) {
+                // Hourly rows need the location the daily forecast stores
+                if (forecasts.get(i).status != LOCATION_STATUS_OK) {
+                    continue;
+                }
+                try {
+                    storeHourlyForecast(hourlyFutures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing hourly forecast for " + locationSettings.get(i), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; whatever has been parsed so far is dropped.
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<LocationForecast> future : futures) {
+                future.cancel(true);
+            }
+            for (Future<HourlyForecast> future : hourlyFutures) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            pending.abortAll();
+        }
+    }
+
+    /**
+     * Downloads and parses the forecast for one location.  This runs on a worker thread, so
+     * it only reads from the provider and never touches the location status: failures are
+     * recorded in the returned forecast instead.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private LocationForecast fetchForecast(String locationSetting) {
+        final LocationForecast forecast = new LocationForecast(locationSetting);
+        ForecastHttpClient.Response response = null;
+        Reader reader = null;
+        try {
+            Uri builtUri = ForecastHttpClient.buildDailyForecastUri(locationSetting);
+            ForecastResponseCache.Entry cachedResponse = mResponseCache.get(builtUri);
+            response = mHttpClient.get(builtUri, cachedResponse);
+
+            InputStream inputStream;
+            if (cachedResponse != null && response.isNotModified()) {
+                if (hasWeatherForToday(locationSetting)) {
+                    forecast.notModified = true;
+                    return forecast;
+                }
+                inputStream = cachedResponse.openBody();
+            } else {
+                inputStream = response.getBody();
+                if (inputStream == null) {
+                    forecast.status = LOCATION_STATUS_SERVER_DOWN;
+                    return forecast;
+                }
+                forecast.cacheEditor = mResponseCache.edit(builtUri);
+                forecast.etag = response.getHeader("ETag");
+                forecast.lastModified = response.getHeader("Last-Modified");
+                inputStream = forecast.cacheEditor.wrap(inputStream);
+            }
+
+            reader = new InputStreamReader(inputStream, "UTF-8");
+            new ForecastJsonParser().parse(reader, new ForecastJsonParser.Callback() {
+                @Override
+                public void onMessageCode(int code) {
+                    forecast.status = getStatusForMessageCode(code);
+                }
+
+                @Override
+                public void onCity(String name, double lat, double lon) {
+                    forecast.cityName = name;
+                    forecast.lat = lat;
+                    forecast.lon = lon;
+                }
+
+                @Override
+                public void onDay(int index, ContentValues weatherValues) {
+                    forecast.days.add(weatherValues);
                 }
             });
+            if (forecast.status == LOCATION_STATUS_OK && forecast.cityName == null) {
+                throw new JSONException("No city in forecast response");
+            }
+            if (forecast.cacheEditor != null) {
+                // The response is closed below, long before the batch commits.
+                forecast.cacheEditor.finishBody();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error syncing " + locationSetting, e);
+            forecast.status = LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            forecast.status = LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (forecast.status != LOCATION_STATUS_OK) {
+                forecast.abortCache();
+            }
+            if (response != null) {
+                response.close();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return forecast;
+    }
+
+    /**
+     * Writes the rows of every successfully parsed forecast in one batch and fans the update
+     * out once.
+     *
+     * @return true if the batch was applied
+     */
+    private boolean storeForecasts(List<LocationForecast> forecasts) {
+        int julianStartDay = getJulianStartDay();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int inserted = 0;
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.status != LOCATION_STATUS_OK || forecast.notModified
+                    || forecast.days.isEmpty()) {
+                continue;
+            }
+            addWeatherOperations(operations, forecast.locationSetting, forecast.cityName,
+                    forecast.lat, forecast.lon, forecast.days, julianStartDay);
+            inserted += forecast.days.size();
+        }
+
+        if (inserted > 0) {
+            if (!applyBatch(operations)) {
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return false;
+            }
         }
-        cursor.close();
+
+        // The preferred location is always first.
+        LocationForecast preferred = forecasts.get(0);
+        if (inserted > 0) {
+            if (preferred.status == LOCATION_STATUS_OK && !preferred.notModified) {
+                sendTodayToWearable(preferred.locationSetting);
+            }
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+            applyRetention();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + forecasts.size() + " locations, " + inserted + " Inserted");
+        setLocationStatus(getContext(), preferred.status);
+        return true;
+    }
+
+    /**
+     * @return true if the database already holds today's forecast for {@code locationSetting}
+     */
+    private boolean hasWeatherForToday(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sends today's forecast for {@code locationSetting} to the data layer.
+     */
+    private void sendTodayToWearable(String locationSetting) {
+        Cursor todayCursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                WEARABLE_DATA_PROJECTION,
+                null,
+                null,
+                null);
+        if (todayCursor != null) {
+            sendDataToWearable(todayCursor, SettingsSnapshot.get(getContext()));
+        }
+    }
+
+    private void sendDataToWearable(Cursor cursor, SettingsSnapshot settings) {
+        int weatherId;
+        // In Celsius, as stored; the wearable converts them if the user wants Fahrenheit
+        double high;
+        double low;
+        long date;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            high = cursor.getDouble(INDEX_MAX_TEMP);
+            low = cursor.getDouble(INDEX_MIN_TEMP);
+            date = cursor.getLong(INDEX_WEARABLE_DATE);
+        } finally {
+            cursor.close();
+        }
+        boolean metric = settings.isMetric();
+
+        // The data layer already holds this weather, and the watch face reads it when it
+        // connects, so don't wake the watch for nothing
+        final long hash = WearableDedup.hash(weatherId, high, low, date, metric);
+        if (mWearableDedup.isDelivered(hash)) {
+            Log.d(LOG_TAG, "Wearable already has today's weather");
+            return;
+        }
+        Log.d(LOG_TAG, "Sending data to wearable");
+
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEARABLE_DATA_PATH);
+        DataMap dataMap = putDataMapRequest.getDataMap();
+        dataMap.putInt(WEATHER_ID_KEY, weatherId);
+        dataMap.putDouble(HIGH_KEY, high);
+        dataMap.putDouble(LOW_KEY, low);
+        dataMap.putBoolean(IS_METRIC_KEY, metric);
+        dataMap.putLong(TIMESTAMP_KEY, System.currentTimeMillis());
+
+        // Only weather that changed gets here, and the user should see it now
+        PutDataRequest putDataReq = putDataMapRequest.asPutDataRequest().setUrgent();
+        PendingResult<DataApi.DataItemResult> pendingResult =
+                Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
+        pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+            @Override
+            public void onResult(DataApi.DataItemResult dataItemResult) {
+                if (dataItemResult.getStatus().isSuccess()) {
+                    mWearableDedup.recordDelivered(hash);
+                    Log.d(LOG_TAG, "Successfully sent weather data - " + dataItemResult.getStatus().getStatusMessage());
+                } else {
+                    Log.e(LOG_TAG, "Failed to send weather data item - " + dataItemResult.getStatus().getStatusMessage());
+                }
+            }
+        });
     }
 
     private void updateWidgets() {
@@ -577,7 +1259,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
+                SettingsSnapshot settings = SettingsSnapshot.get(context);
+                String locationQuery = settings.getLocation();
 
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
@@ -593,7 +1276,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+                    String artUrl = Utility.getArtUrlForWeatherCondition(settings, weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -624,8 +1307,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            Utility.formatTemperature(context, settings, high),
+                            Utility.formatTemperature(context, settings, low));
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -669,56 +1352,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     @Override
     public void onConnected(Bundle connectionHint) {
         if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
@@ -742,6 +1375,98 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         Log.d(LOG_TAG, "onConnectionFailed");
     }
 
+    /**
+     * A downloaded response whose copy goes into the response cache only once its rows are
+     * stored.
+     */
+    private static class CachedDownload {
+        ForecastResponseCache.Editor cacheEditor;
+        String etag;
+        String lastModified;
+
+        void commitToCache() throws IOException {
+            if (cacheEditor != null) {
+                try {
+                    cacheEditor.commit(etag, lastModified);
+                } finally {
+                    cacheEditor = null;
+                }
+            }
+        }
+
+        void abortCache() {
+            if (cacheEditor != null) {
+                cacheEditor.abort();
+                cacheEditor = null;
+            }
+        }
+    }
+
+    /**
+     * Every download a worker has finished in a multi-location sync, collected or not, so a
+     * cancelled sync can abort the cache editors of the ones nobody will commit.  A worker that
+     * finishes after that aborts its own.
+     */
+    private static final class PendingDownloads {
+        private final List<CachedDownload> mDownloads = new ArrayList<CachedDownload>();
+        private boolean mAborted;
+
+        synchronized <T extends CachedDownload> T add(T download) {
+            if (mAborted) {
+                download.abortCache();
+            } else {
+                mDownloads.add(download);
+            }
+            return download;
+        }
+
+        /**
+         * Committed downloads have no editor left, so this only drops the uncommitted ones.
+         */
+        synchronized void abortAll() {
+            mAborted = true;
+            for (CachedDownload download : mDownloads) {
+                download.abortCache();
+            }
+            mDownloads.clear();
+        }
+    }
+
+    /**
+     * The outcome of downloading and parsing one location's forecast in a multi-location sync.
+     */
+    private static final class LocationForecast extends CachedDownload {
+        final String locationSetting;
+        final ArrayList<ContentValues> days = new ArrayList<ContentValues>();
+        @LocationStatus
+        int status = LOCATION_STATUS_OK;
+        // true if the server and the database already agree, so there is nothing to store
+        boolean notModified;
+        String cityName;
+        double lat;
+        double lon;
+
+        LocationForecast(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    /**
+     * The outcome of downloading and parsing one location's 3 hourly forecast.
+     */
+    private static final class HourlyForecast extends CachedDownload {
+        final String locationSetting;
+        final ArrayList<ContentValues> steps = new ArrayList<ContentValues>();
+        // true if the download or the parse failed, so there is nothing to store
+        boolean failed;
+        // true if the server and the database already agree, so there is nothing to store
+        boolean notModified;
+
+        HourlyForecast(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Keeps the sync from hammering a forecast server that is failing.
+ * <p>
+ * Every sync records its outcome here.  Each consecutive failure doubles the time before the
+ * next attempt is allowed, starting at {@link #BASE_DELAY_SECONDS} and capped at the normal
+ * sync interval, with random jitter so that devices which failed together don't all retry
+ * together.  A successful sync puts the schedule back to normal.
+ * <p>
+ * The state is kept in the shared preferences so that it survives the sync process being
+ * killed, and it is tied to the location that failed: changing the location setting clears it.
+ */
+class SyncBackoff {
+
+    static final long BASE_DELAY_SECONDS = 60;
+    static final long MAX_DELAY_SECONDS = SunshineSyncAdapter.SYNC_INTERVAL;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private final Random mRandom = new Random();
+
+    SyncBackoff(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @return the number of seconds to wait before syncing {@code locationSetting} again, or 0
+     * if a sync is allowed now
+     */
+    long getRemainingDelaySeconds(String locationSetting) {
+        if (!locationSetting.equals(mPrefs.getString(getKey(R.string.pref_sync_backoff_location_key), null))) {
+            return 0;
+        }
+        long nextAttempt = mPrefs.getLong(getKey(R.string.pref_sync_next_attempt_key), 0);
+        long remainingMillis = nextAttempt - System.currentTimeMillis();
+        if (remainingMillis <= 0) {
+            return 0;
+        }
+        // The period can't be longer than the cap, whatever the clock did in the meantime.
+        return Math.min((remainingMillis + 999) / 1000, MAX_DELAY_SECONDS);
+    }
+
+    /**
+     * Records how a sync of {@code locationSetting} ended.  This should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
+     *
+     * @return the number of seconds until the next sync is allowed, 0 if there is no backoff
+     */
+    long recordOutcome(String locationSetting, @SunshineSyncAdapter.LocationStatus int status) {
+        switch (status) {
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID: {
+                String failedLocationKey = getKey(R.string.pref_sync_backoff_location_key);
+                String failureCountKey = getKey(R.string.pref_sync_failure_count_key);
+                int failures = locationSetting.equals(mPrefs.getString(failedLocationKey, null))
+                        ? mPrefs.getInt(failureCountKey, 0) + 1
+                        : 1;
+                long delaySeconds = getDelaySeconds(failures, mRandom.nextDouble());
+                mPrefs.edit()
+                        .putString(failedLocationKey, locationSetting)
+                        .putInt(failureCountKey, failures)
+                        .putLong(getKey(R.string.pref_sync_next_attempt_key),
+                                System.currentTimeMillis() + delaySeconds * 1000)
+                        .commit();
+                return delaySeconds;
+            }
+            case SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN:
+                // Nothing was learned about the server.
+                return getRemainingDelaySeconds(locationSetting);
+            default:
+                // The server answered, even if only to say the location is invalid.
+                reset();
+                return 0;
+        }
+    }
+
+    void reset() {
+        mPrefs.edit()
+                .remove(getKey(R.string.pref_sync_backoff_location_key))
+                .remove(getKey(R.string.pref_sync_failure_count_key))
+                .remove(getKey(R.string.pref_sync_next_attempt_key))
+                .commit();
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": the wait is somewhere between half of and the full
+     * exponential delay, so it still grows steadily but retries are spread out.
+     *
+     * @param failures the number of consecutive failures, at least 1
+     * @param random   a value in [0, 1)
+     */
+    static long getDelaySeconds(int failures, double random) {
+        // Past 2^20 minutes the cap has long been reached; this also keeps the shift in range.
+        int exponent = Math.min(Math.max(failures, 1) - 1, 20);
+        long delay = Math.min(BASE_DELAY_SECONDS << exponent, MAX_DELAY_SECONDS);
+        return delay / 2 + (long) (random * (delay - delay / 2));
+    }
+
+    private String getKey(int resId) {
+        return mContext.getString(resId);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collapses bursts of immediate sync requests into a single sync.
+ * <p>
+ * A request is held for {@link #DEBOUNCE_MILLIS}, and every request that arrives in the meantime
+ * is merged into it, so a few quick edits in the settings cost one download instead of one each.
+ * The wait is restarted by each new request but never goes beyond {@link #MAX_DELAY_MILLIS} from
+ * the first one.  A request for a location whose sync is already running is merged into that sync
+ * instead, since it is about to deliver exactly what was asked for.
+ */
+class SyncRequestCoalescer {
+    private static final String LOG_TAG = SyncRequestCoalescer.class.getSimpleName();
+
+    static final long DEBOUNCE_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 5000;
+
+    private static SyncRequestCoalescer sInstance;
+
+    /**
+     * Sends a coalesced request on to the sync framework.
+     */
+    interface RequestSender {
+        void send(boolean allLocations);
+    }
+
+    private final Handler mHandler;
+    private final RequestSender mSender;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // All of the below are guarded by this
+    private boolean mPending;
+    private boolean mPendingAllLocations;
+    private long mFirstRequestTime;
+    private final Set<String> mInFlightLocations = new HashSet<String>();
+    private int mMergedRequestCount;
+
+    SyncRequestCoalescer(Looper looper, RequestSender sender) {
+        mHandler = new Handler(looper);
+        mSender = sender;
+    }
+
+    static synchronized SyncRequestCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new SyncRequestCoalescer(Looper.getMainLooper(), new RequestSender() {
+                @Override
+                public void send(boolean allLocations) {
+                    SunshineSyncAdapter.requestSync(appContext, allLocations);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asks for a sync of {@code locationSetting}, or of every tracked location if
+     * {@code allLocations} is set.  May be called from any thread.
+     */
+    synchronized void request(String locationSetting, boolean allLocations) {
+        if (!allLocations && !mPending && mInFlightLocations.contains(locationSetting)) {
+            mMergedRequestCount++;
+            Log.d(LOG_TAG, "Sync of " + locationSetting + " already running, request merged");
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (mPending) {
+            mMergedRequestCount++;
+            mPendingAllLocations |= allLocations;
+        } else {
+            mPending = true;
+            mPendingAllLocations = allLocations;
+            mFirstRequestTime = now;
+        }
+        mHandler.removeCallbacks(mFlush);
+        long delay = Math.min(DEBOUNCE_MILLIS, mFirstRequestTime + MAX_DELAY_MILLIS - now);
+        mHandler.postDelayed(mFlush, Math.max(delay, 0));
+    }
+
+    synchronized void onSyncStarted(String locationSetting) {
+        mInFlightLocations.add(locationSetting);
+    }
+
+    synchronized void onSyncFinished(String locationSetting) {
+        mInFlightLocations.remove(locationSetting);
+    }
+
+    /**
+     * @return how many requests have been folded into another request or a running sync
+     */
+    synchronized int getMergedRequestCount() {
+        return mMergedRequestCount;
+    }
+
+    private void flush() {
+        boolean allLocations;
+        synchronized (this) {
+            if (!mPending) {
+                return;
+            }
+            mPending = false;
+            allLocations = mPendingAllLocations;
+            Log.d(LOG_TAG, "Requesting sync, " + mMergedRequestCount + " requests merged so far");
+        }
+        mSender.send(allLocations);
+    }
+}
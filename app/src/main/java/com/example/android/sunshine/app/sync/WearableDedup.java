@@ -0,0 +1,71 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Keeps the sync from waking the watch with weather it already has.
+ * <p>
+ * The weather sent to the wearable carries the time it was sent, so the data layer sees every put
+ * as new, and every put is urgent, so each one is a Bluetooth transfer and a wake-up on the
+ * watch.  Most syncs bring the same condition and temperatures for today that the last one did.
+ * So what the watch shows, the condition, the high, the low, the day and the units, is hashed,
+ * and the hash of the last weather the data layer accepted is remembered.  The sync only puts
+ * weather whose hash differs.
+ * <p>
+ * The hash is kept in the shared preferences so that it survives the sync process being killed.
+ * The data layer keeps the last item, and the watch face reads it whenever it connects, so a
+ * face that was hidden when the weather was put, and missed the change, still gets it.
+ */
+class WearableDedup {
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    WearableDedup(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @param high   in Celsius, as stored
+     * @param low    in Celsius, as stored
+     * @param date   the day the weather is for, as stored
+     * @param metric whether the watch shows it in Celsius
+     */
+    static long hash(int weatherId, double high, double low, long date, boolean metric) {
+        long hash = weatherId;
+        hash = 31 * hash + Double.doubleToLongBits(high);
+        hash = 31 * hash + Double.doubleToLongBits(low);
+        hash = 31 * hash + date;
+        hash = 31 * hash + (metric ? 1 : 0);
+        return hash;
+    }
+
+    /**
+     * @return true if the weather with this hash is the last the data layer accepted
+     */
+    boolean isDelivered(long hash) {
+        String key = getKey();
+        return mPrefs.contains(key) && mPrefs.getLong(key, 0) == hash;
+    }
+
+    /**
+     * Records that the data layer accepted the weather with this hash.  This is called from the
+     * put's result callback, on the main thread, so it uses apply.
+     */
+    void recordDelivered(long hash) {
+        mPrefs.edit().putLong(getKey(), hash).apply();
+    }
+
+    void reset() {
+        mPrefs.edit().remove(getKey()).commit();
+    }
+
+    private String getKey() {
+        return mContext.getString(R.string.pref_wearable_data_hash_key);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.Calendar;
+
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    private static final int SIZE = 320;
+    private static final int FRAMES = 120;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+    private long mNoon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.applyWindowInsets(mContext.getResources(), false);
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, SIZE, SIZE);
+
+        // Far enough from midnight that the frames below stay on one day
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        calendar.set(Calendar.MINUTE, 0);
+        mNoon = calendar.getTimeInMillis();
+    }
+
+    @SuppressWarnings("deprecation")
+    private int countAllocations(boolean ambient) {
+        mRenderer.setAmbient(ambient);
+        // The first frame of the day works out the date line
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 1; i <= FRAMES; i++) {
+            mRenderer.draw(mCanvas, mBounds, mNoon + i * 1000);
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    public void testInteractiveFramesDoNotAllocate() {
+        mRenderer.setWeather("25\u00B0", "16\u00B0", mNoon);
+        mRenderer.setWeatherIcon(Bitmap.createBitmap(75, 75, Bitmap.Config.ARGB_8888));
+        assertEquals("Error: Drawing a frame allocated", 0, countAllocations(false));
+    }
+
+    public void testAmbientFramesDoNotAllocate() {
+        assertEquals("Error: Drawing a frame allocated", 0, countAllocations(true));
+    }
+
+    public void testFramesDrawTheLayerAndTheTime() {
+        mRenderer.setWeather("25\u00B0", "16\u00B0", mNoon);
+        Bitmap frame = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(frame);
+        mRenderer.draw(canvas, mBounds, mNoon);
+        Bitmap first = frame.copy(Bitmap.Config.ARGB_8888, false);
+
+        // The same minute, drawn from the cached layer, looks the same as the frame that drew it
+        mRenderer.draw(canvas, mBounds, mNoon + 1000);
+        assertTrue(first.sameAs(frame));
+
+        // A new minute changes the time drawn over the layer
+        mRenderer.draw(canvas, mBounds, mNoon + 60 * 1000);
+        assertFalse(first.sameAs(frame));
+    }
+}
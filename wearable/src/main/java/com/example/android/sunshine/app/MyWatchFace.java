@@ -20,18 +20,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
@@ -41,18 +37,18 @@ import android.view.WindowInsets;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -62,9 +58,6 @@ import java.util.concurrent.TimeUnit;
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class MyWatchFace extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -76,20 +69,11 @@ public class MyWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    Bitmap weatherConditionBitmap;
-    String highTemp;
-    String lowTemp;
-    Long dataTimestamp;
-
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
-    public void setWeatherConditionBitmap(Bitmap weatherConditionBitmap) {
-        this.weatherConditionBitmap = Bitmap.createScaledBitmap(weatherConditionBitmap, 75, 75, false);
-    }
-
     private static class EngineHandler extends Handler {
         private final WeakReference<MyWatchFace.Engine> mWeakReference;
 
@@ -113,41 +97,31 @@ public class MyWatchFace extends CanvasWatchFaceService {
     private class Engine extends CanvasWatchFaceService.Engine
             implements DataApi.DataListener, GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
         private static final String LOG_TAG = "MyWatchFace";
-        private static final float HR_WIDTH = 1f;
 
         private static final String WEATHER_DATA_PATH = "/weather-data";
         private static final String DATA_ITEM_RECEIVED_PATH = "/data-item-received";
-        private static final String CONDITION_ASSET_KEY = "com.example.key.conditionAsset";
-        private static final String HIGH_TEMP_KEY = "com.example.key.highTemp";
-        private static final String LOW_TEMP_KEY = "com.example.key.lowTemp";
+        private static final String WEATHER_ID_KEY = "com.example.key.weatherId";
+        private static final String HIGH_KEY = "com.example.key.high";
+        private static final String LOW_KEY = "com.example.key.low";
+        private static final String IS_METRIC_KEY = "com.example.key.isMetric";
         private static final String TIMESTAMP_KEY = "com.example.key.timestamp";
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Paint mBackgroundPaint;
-        Paint mHoursPaint;
-        Paint mMinutesPaint;
-        Paint mDatePaint;
-        Paint mHorizontalRulePaint;
-        Paint mWeatherIconPaint;
-        Paint mHighTempPaint;
-        Paint mLowTempPaint;
+        WatchFaceRenderer mRenderer;
+        String mTemperatureFormat;
+        // The art the renderer is showing, so it is only decoded when the condition changes
+        int mWeatherArt = WeatherDisplay.NO_ART;
+        Bitmap mWeatherIcon;
 
-        boolean mAmbient;
-
-        Calendar mCalendar;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getTimeZone(intent.getStringExtra("time-zone")));
+                mRenderer.setTimeZone(TimeZone.getTimeZone(intent.getStringExtra("time-zone")));
+                invalidate();
             }
         };
-        SimpleDateFormat hoursFormat;
-        SimpleDateFormat minutesFormat;
-        SimpleDateFormat dateFormat;
-
-        Date currentTime;
 
         GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(MyWatchFace.this)
                 .addConnectionCallbacks(this)
@@ -155,12 +129,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 .addApi(Wearable.API)
                 .build();
 
-        /**
-         * Whether the display supports fewer bits for each color in ambient mode. When true, we
-         * disable anti-aliasing in ambient mode.
-         */
-        boolean mLowBitAmbient;
-
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -172,42 +140,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     .setShowSystemUiTime(false)
                     .build());
 
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(ContextCompat.getColor(getBaseContext(), R.color.background2));
-
-            mHoursPaint = createDefaultTextPaint(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mHoursPaint.setTextAlign(Paint.Align.RIGHT);
-
-            mMinutesPaint = createDefaultTextPaint(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mMinutesPaint.setTextAlign(Paint.Align.LEFT);
-
-            mDatePaint = createDefaultTextPaint(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mDatePaint.setTextAlign(Paint.Align.CENTER);
-
-            mHorizontalRulePaint = new Paint();
-            mHorizontalRulePaint.setColor(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mHorizontalRulePaint.setStrokeWidth(HR_WIDTH);
-            mHorizontalRulePaint.setAntiAlias(true);
-
-            mWeatherIconPaint = new Paint();
-            mWeatherIconPaint.setAntiAlias(true);
-
-            mHighTempPaint = createDefaultTextPaint(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mHighTempPaint.setTextAlign(Paint.Align.CENTER);
-
-            mLowTempPaint = createDefaultTextPaint(ContextCompat.getColor(getBaseContext(), R.color.digital_text));
-            mLowTempPaint.setTextAlign(Paint.Align.CENTER);
-
-            mCalendar = Calendar.getInstance(TimeZone.getDefault());
-            hoursFormat = new SimpleDateFormat("hh", Locale.getDefault());
-            minutesFormat = new SimpleDateFormat(":mm", Locale.getDefault());
-            dateFormat = new SimpleDateFormat("E, MMM d yyyy", Locale.getDefault());
-
-            weatherConditionBitmap = null;
-            highTemp = "";
-            lowTemp = "";
-            dataTimestamp = null;
-
+            mRenderer = new WatchFaceRenderer(MyWatchFace.this);
+            mTemperatureFormat = getString(R.string.format_temperature);
 
             Log.d(LOG_TAG, "Connecting in onCreate");
             mGoogleApiClient.connect();
@@ -216,17 +150,10 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mRenderer.release();
             super.onDestroy();
         }
 
-        private Paint createDefaultTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -236,7 +163,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 mGoogleApiClient.connect();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.getInstance();
+                mRenderer.setTimeZone(TimeZone.getDefault());
             } else {
                 unregisterReceiver();
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
@@ -272,32 +199,21 @@ public class MyWatchFace extends CanvasWatchFaceService {
             super.onApplyWindowInsets(insets);
 
             // Load resources that have alternate values for round watches.
-            Resources resources = MyWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
-            float timeTextSize = resources.getDimension(isRound
-                    ? R.dimen.large_digital_text_size_round : R.dimen.large_digital_text_size);
-            float dateTextSize = resources.getDimension(isRound
-                    ? R.dimen.small_digital_text_size_round : R.dimen.small_digital_text_size);
-            float tempTextSize = resources.getDimension(isRound
-                    ? R.dimen.medium_digital_text_size_round : R.dimen.medium_digital_text_size);
-
-            mHoursPaint.setTextSize(timeTextSize);
-            mHoursPaint.setTypeface(Typeface.DEFAULT_BOLD);
-            mMinutesPaint.setTextSize(timeTextSize);
-            mDatePaint.setTextSize(dateTextSize);
-            mHighTempPaint.setTextSize(tempTextSize);
-            mHighTempPaint.setTypeface(Typeface.DEFAULT_BOLD);
-            mLowTempPaint.setTextSize(tempTextSize);
+            mRenderer.applyWindowInsets(MyWatchFace.this.getResources(), insets.isRound());
+        }
+
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mRenderer.setSurfaceSize(width, height);
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
-            boolean burnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
-            mHoursPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : Typeface.DEFAULT_BOLD);
-            mHighTempPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : Typeface.DEFAULT_BOLD);
-
-            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            // Whether the display supports fewer bits for each color in ambient mode. When true,
+            // anti-aliasing is disabled in ambient mode.
+            mRenderer.setLowBitAmbient(properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false));
         }
 
         @Override
@@ -309,26 +225,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
-            if (mAmbient != inAmbientMode) {
-                mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mHoursPaint.setAntiAlias(!inAmbientMode);
-                    mMinutesPaint.setAntiAlias(!inAmbientMode);
-                    mDatePaint.setAntiAlias(!inAmbientMode);
-                    mHorizontalRulePaint.setAntiAlias(!inAmbientMode);
-                    mWeatherIconPaint.setAntiAlias(!inAmbientMode);
-                    mHighTempPaint.setAntiAlias(!inAmbientMode);
-                    mLowTempPaint.setAntiAlias(!inAmbientMode);
-                }
-
-                if (mAmbient) {
-                    mHoursPaint.setTypeface(NORMAL_TYPEFACE);
-                    mHighTempPaint.setTypeface(NORMAL_TYPEFACE);
-                } else {
-                    mHoursPaint.setTypeface(Typeface.DEFAULT_BOLD);
-                    mHighTempPaint.setTypeface(Typeface.DEFAULT_BOLD);
-                }
-
+            if (mRenderer.setAmbient(inAmbientMode)) {
                 invalidate();
             }
 
@@ -339,63 +236,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            float boundsWidth = bounds.width();
-            float boundsHeight = bounds.height();
-
-            float horizontalRuleLength = boundsWidth / 6;
-            float horizontalRuleYOffset = (boundsHeight / 5) * 3;
-
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, boundsWidth, boundsHeight, mBackgroundPaint);
-            }
-
-            // Draw HH:MM, date, horizontal rule, and temperature in both interactive and ambient
-            // mode.
-            mCalendar = Calendar.getInstance();
-            currentTime = mCalendar.getTime();
-
-            String hour = hoursFormat.format(currentTime);
-            canvas.drawText(hour, boundsWidth / 2, (boundsHeight / 5) * 2,
-                    mHoursPaint);
-
-            String minutes = minutesFormat.format(currentTime);
-            canvas.drawText(minutes, boundsWidth / 2, (boundsHeight / 5) * 2,
-                    mMinutesPaint);
-
-            String date = dateFormat.format(currentTime).toUpperCase();
-            canvas.drawText(date, boundsWidth / 2, (boundsHeight / 11) * 6,
-                    mDatePaint);
-
-            // Reset temps values and icon bitmap if data is from a day that is not today.
-            if (dataTimestamp != null) {
-                String timestampDate = dateFormat.format(dataTimestamp).toUpperCase();
-                if (!date.equals(timestampDate)) {
-                    weatherConditionBitmap = null;
-                    highTemp = "";
-                    lowTemp = "";
-                }
-            }
-
-            // Draw weather data if in interactive mode
-            if (!isInAmbientMode()) {
-                canvas.drawLine(
-                        horizontalRuleLength * 2, horizontalRuleYOffset,
-                        horizontalRuleLength * 4, horizontalRuleYOffset,
-                        mHorizontalRulePaint);
-
-                if (weatherConditionBitmap != null) {
-                    canvas.drawBitmap(weatherConditionBitmap,
-                            (boundsWidth / 10), (boundsHeight / 5) * 3, mWeatherIconPaint);
-                }
-
-                canvas.drawText(highTemp, boundsWidth / 2, (boundsHeight / 5) * 4,
-                        mHighTempPaint);
-                canvas.drawText(lowTemp, (boundsWidth / 9) * 7, (boundsHeight / 5) * 4,
-                        mLowTempPaint);
-            }
+            mRenderer.draw(canvas, bounds, System.currentTimeMillis());
         }
 
         /**
@@ -446,15 +287,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
                     DataMap weatherData = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
 
-                    Asset weatherConditionAsset = weatherData.getAsset(CONDITION_ASSET_KEY);
-                    BitmapFromAssetTask getBitmapFromAssetTask =
-                            new BitmapFromAssetTask(MyWatchFace.this, mGoogleApiClient);
-                    getBitmapFromAssetTask.execute(weatherConditionAsset);
-
-                    highTemp = weatherData.getString(HIGH_TEMP_KEY);
-                    lowTemp = weatherData.getString(LOW_TEMP_KEY);
-
-                    dataTimestamp = weatherData.getLong(TIMESTAMP_KEY);
+                    setWeather(weatherData);
+                    invalidate();
                 }
 
                 // Get the node id from the host value of the URI
@@ -468,6 +302,28 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
         }
 
+        private void setWeather(DataMap weatherData) {
+            Locale locale = Locale.getDefault();
+            boolean metric = weatherData.getBoolean(IS_METRIC_KEY, true);
+            mRenderer.setWeather(
+                    WeatherDisplay.formatTemperature(locale, mTemperatureFormat,
+                            weatherData.getDouble(HIGH_KEY), metric),
+                    WeatherDisplay.formatTemperature(locale, mTemperatureFormat,
+                            weatherData.getDouble(LOW_KEY), metric),
+                    weatherData.getLong(TIMESTAMP_KEY));
+
+            int weatherArt = WeatherDisplay.getArtResource(
+                    weatherData.getInt(WEATHER_ID_KEY, -1));
+            // The art is already drawn at WEATHER_ICON_SIZE, so it is only decoded, never scaled.
+            // The renderer drops the icon along with stale weather, so it is set every time.
+            if (weatherArt != mWeatherArt) {
+                mWeatherArt = weatherArt;
+                mWeatherIcon = weatherArt == WeatherDisplay.NO_ART ? null
+                        : BitmapFactory.decodeResource(getResources(), weatherArt);
+            }
+            mRenderer.setWeatherIcon(mWeatherIcon);
+        }
+
         @Override
         public void onConnected(Bundle connectionHint) {
             if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
@@ -475,6 +331,35 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
             Log.d(LOG_TAG, "Connected.");
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+            loadWeather();
+        }
+
+        /**
+         * Applies the weather the data layer holds now.  The listener is removed while the face
+         * is hidden, and the phone doesn't put weather that hasn't changed again, so weather put
+         * in the meantime would otherwise not show until it changes.
+         */
+        private void loadWeather() {
+            Uri uri = new Uri.Builder()
+                    .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(WEATHER_DATA_PATH)
+                    .build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, uri).setResultCallback(
+                    new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(DataItemBuffer dataItems) {
+                            try {
+                                for (DataItem dataItem : dataItems) {
+                                    setWeather(DataMapItem.fromDataItem(dataItem).getDataMap());
+                                }
+                                if (dataItems.getCount() > 0) {
+                                    invalidate();
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                        }
+                    });
         }
 
         @Override
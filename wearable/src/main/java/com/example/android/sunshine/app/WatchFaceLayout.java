@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * Where each part of the watch face goes on a screen of a given size and shape.
+ * <p>
+ * This is worked out once, when the surface or its insets change, so a frame is only a fixed set
+ * of draw calls.  Positions are relative to the top left of the bounds, and text positions are
+ * where the text is anchored on its baseline, as {@link android.graphics.Canvas#drawText} takes
+ * them.  It only does arithmetic, so it can be checked for any screen without a device.
+ * <p>
+ * A square screen uses the whole rectangle.  On a round one the weather row is pulled in far
+ * enough that the icon and the low temperature stay inside the circle.
+ */
+final class WatchFaceLayout {
+
+    // The bundled weather art is drawn at this size, so it is never scaled
+    static final int WEATHER_ICON_SIZE = 75;
+
+    final int width;
+    final int height;
+    final boolean isRound;
+
+    // The hours end and the minutes start here
+    final float timeX;
+    final float timeY;
+    final float dateX;
+    final float dateY;
+    final float ruleStartX;
+    final float ruleEndX;
+    final float ruleY;
+    // The top left of the icon
+    final float iconX;
+    final float iconY;
+    final float highTempX;
+    final float highTempY;
+    // The low temperature is centered here
+    final float lowTempX;
+    final float lowTempY;
+
+    /**
+     * @param lowTempWidth how wide the widest low temperature is drawn, measured once for the
+     *                     text size in use
+     */
+    WatchFaceLayout(int width, int height, boolean isRound, float lowTempWidth) {
+        this.width = width;
+        this.height = height;
+        this.isRound = isRound;
+
+        timeX = width / 2f;
+        timeY = height / 5f * 2;
+        dateX = width / 2f;
+        dateY = height / 11f * 6;
+
+        float ruleLength = width / 6f;
+        ruleStartX = ruleLength * 2;
+        ruleEndX = ruleLength * 4;
+        ruleY = height / 5f * 3;
+
+        float iconX = width / 10f;
+        iconY = height / 5f * 3;
+        highTempX = width / 2f;
+        highTempY = height / 5f * 4;
+        float lowTempX = width / 9f * 7;
+        lowTempY = height / 5f * 4;
+
+        if (isRound) {
+            // The icon's lower corner is the first part of it the circle cuts off
+            iconX = Math.max(iconX, getCircleLeft(iconY + WEATHER_ICON_SIZE));
+            lowTempX = Math.min(lowTempX, width - getCircleLeft(lowTempY) - lowTempWidth / 2);
+        }
+        this.iconX = iconX;
+        this.lowTempX = lowTempX;
+    }
+
+    /**
+     * @return the leftmost x inside the circle at {@code y}
+     */
+    float getCircleLeft(float y) {
+        float radius = Math.min(width, height) / 2f;
+        float dy = y - height / 2f;
+        if (Math.abs(dy) >= radius) {
+            return width / 2f;
+        }
+        return width / 2f - (float) Math.sqrt(radius * radius - dy * dy);
+    }
+
+    /**
+     * @return true if this layout is for a screen of this size and shape
+     */
+    boolean fits(int width, int height, boolean isRound) {
+        return this.width == width && this.height == height && this.isRound == isRound;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.v4.content.ContextCompat;
+
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Draws the watch face: the time, the date and today's weather.
+ * <p>
+ * In interactive mode a frame is drawn every second, and on a watch the garbage from each frame
+ * adds up to collection pauses the user sees and battery the user pays for.  So a frame allocates
+ * nothing once the day's first frame is drawn.  The calendar is reused, the hours and minutes are
+ * written into reused char arrays, and the date line, along with the check for weather from an
+ * earlier day, is only redone when the day changes.
+ * <p>
+ * Only the time changes from one frame to the next.  Everything else, the background, the date,
+ * the rule and the weather, is drawn into an offscreen layer, and a frame copies the layer and
+ * draws the time over it.  The layer is redrawn when the bounds, the mode, the text sizes, the
+ * date or the weather change, which for a watch in ambient mode is about once a day.
+ * <p>
+ * Where everything goes comes from a {@link WatchFaceLayout}, worked out when the surface or the
+ * insets change rather than on each frame.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+    private static final float HR_WIDTH = 1f;
+    private static final int NO_DAY = -1;
+    // The widest low temperature the layout leaves room for
+    private static final String WIDEST_LOW_TEMP = "-88\u00B0";
+
+    private final Paint mBackgroundPaint;
+    private final Paint mHoursPaint;
+    private final Paint mMinutesPaint;
+    private final Paint mDatePaint;
+    private final Paint mHorizontalRulePaint;
+    private final Paint mWeatherIconPaint;
+    private final Paint mHighTempPaint;
+    private final Paint mLowTempPaint;
+
+    private final Calendar mCalendar;
+    private final SimpleDateFormat mDateFormat;
+    // The digits of the time are written in the locale's digits, as SimpleDateFormat would
+    private final char mZeroDigit;
+    // "hh" and ":mm"
+    private final char[] mHours = new char[2];
+    private final char[] mMinutes = new char[3];
+
+    // The day mDate is for, as year * 1000 + day of year
+    private int mDay = NO_DAY;
+    private String mDate;
+
+    private Bitmap mWeatherIcon;
+    private String mHighTemp = "";
+    private String mLowTemp = "";
+    private long mWeatherTimestamp;
+    // The day the weather is for, or NO_DAY if there is none
+    private int mWeatherDay = NO_DAY;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    private boolean mIsRound;
+    // How wide WIDEST_LOW_TEMP is at the current text size
+    private float mLowTempWidth;
+    private WatchFaceLayout mLayout;
+
+    // Everything but the time, as of the last time anything in it changed
+    private Bitmap mLayer;
+    private Canvas mLayerCanvas;
+    private boolean mLayerValid;
+
+    WatchFaceRenderer(Context context) {
+        int textColor = ContextCompat.getColor(context, R.color.digital_text);
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.background2));
+
+        mHoursPaint = createDefaultTextPaint(textColor);
+        mHoursPaint.setTextAlign(Paint.Align.RIGHT);
+
+        mMinutesPaint = createDefaultTextPaint(textColor);
+        mMinutesPaint.setTextAlign(Paint.Align.LEFT);
+
+        mDatePaint = createDefaultTextPaint(textColor);
+        mDatePaint.setTextAlign(Paint.Align.CENTER);
+
+        mHorizontalRulePaint = new Paint();
+        mHorizontalRulePaint.setColor(textColor);
+        mHorizontalRulePaint.setStrokeWidth(HR_WIDTH);
+        mHorizontalRulePaint.setAntiAlias(true);
+
+        mWeatherIconPaint = new Paint();
+        mWeatherIconPaint.setAntiAlias(true);
+
+        mHighTempPaint = createDefaultTextPaint(textColor);
+        mHighTempPaint.setTextAlign(Paint.Align.CENTER);
+
+        mLowTempPaint = createDefaultTextPaint(textColor);
+        mLowTempPaint.setTextAlign(Paint.Align.CENTER);
+
+        updateTypefaces();
+
+        Locale locale = Locale.getDefault();
+        mCalendar = Calendar.getInstance(TimeZone.getDefault(), locale);
+        mDateFormat = new SimpleDateFormat("E, MMM d yyyy", locale);
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        mMinutes[0] = ':';
+    }
+
+    private static Paint createDefaultTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDateFormat.setTimeZone(timeZone);
+        // Both days may be different days in the new zone
+        mDay = NO_DAY;
+        mLayerValid = false;
+        if (mWeatherDay != NO_DAY) {
+            mWeatherDay = getDay(mWeatherTimestamp);
+        }
+    }
+
+    /**
+     * Sizes the text and lays the face out for the shape of the screen.
+     */
+    void applyWindowInsets(Resources resources, boolean isRound) {
+        mIsRound = isRound;
+        float timeTextSize = resources.getDimension(isRound
+                ? R.dimen.large_digital_text_size_round : R.dimen.large_digital_text_size);
+        float dateTextSize = resources.getDimension(isRound
+                ? R.dimen.small_digital_text_size_round : R.dimen.small_digital_text_size);
+        float tempTextSize = resources.getDimension(isRound
+                ? R.dimen.medium_digital_text_size_round : R.dimen.medium_digital_text_size);
+
+        mHoursPaint.setTextSize(timeTextSize);
+        mMinutesPaint.setTextSize(timeTextSize);
+        mDatePaint.setTextSize(dateTextSize);
+        mHighTempPaint.setTextSize(tempTextSize);
+        mLowTempPaint.setTextSize(tempTextSize);
+        mLowTempWidth = mLowTempPaint.measureText(WIDEST_LOW_TEMP);
+        mLayerValid = false;
+        if (null != mLayout) {
+            updateLayout(mLayout.width, mLayout.height);
+        }
+    }
+
+    /**
+     * Lays the face out for a surface of this size.
+     */
+    void setSurfaceSize(int width, int height) {
+        updateLayout(width, height);
+    }
+
+    private void updateLayout(int width, int height) {
+        mLayout = new WatchFaceLayout(width, height, mIsRound, mLowTempWidth);
+        mLayerValid = false;
+    }
+
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        mLowBitAmbient = lowBitAmbient;
+        mLayerValid = false;
+    }
+
+    /**
+     * @return true if this changed the mode
+     */
+    boolean setAmbient(boolean ambient) {
+        if (mAmbient == ambient) {
+            return false;
+        }
+        mAmbient = ambient;
+        if (mLowBitAmbient) {
+            mHoursPaint.setAntiAlias(!ambient);
+            mMinutesPaint.setAntiAlias(!ambient);
+            mDatePaint.setAntiAlias(!ambient);
+            mHorizontalRulePaint.setAntiAlias(!ambient);
+            mWeatherIconPaint.setAntiAlias(!ambient);
+            mHighTempPaint.setAntiAlias(!ambient);
+            mLowTempPaint.setAntiAlias(!ambient);
+        }
+        updateTypefaces();
+        mLayerValid = false;
+        return true;
+    }
+
+    // Bold text burns in, so it is only used in interactive mode
+    private void updateTypefaces() {
+        Typeface typeface = mAmbient ? NORMAL_TYPEFACE : Typeface.DEFAULT_BOLD;
+        mHoursPaint.setTypeface(typeface);
+        mHighTempPaint.setTypeface(typeface);
+    }
+
+    /**
+     * Shows the temperatures for the day of {@code timestamp}, until that day is over.
+     */
+    void setWeather(String highTemp, String lowTemp, long timestamp) {
+        mHighTemp = highTemp;
+        mLowTemp = lowTemp;
+        mWeatherTimestamp = timestamp;
+        mWeatherDay = getDay(timestamp);
+        // getDay moved the calendar, so work the date out again on the next frame
+        mDay = NO_DAY;
+        mLayerValid = false;
+    }
+
+    void setWeatherIcon(Bitmap weatherIcon) {
+        mWeatherIcon = weatherIcon;
+        mLayerValid = false;
+    }
+
+    private void clearWeather() {
+        mWeatherIcon = null;
+        mHighTemp = "";
+        mLowTemp = "";
+        mWeatherDay = NO_DAY;
+        mLayerValid = false;
+    }
+
+    private int getDay(long timeInMillis) {
+        mCalendar.setTimeInMillis(timeInMillis);
+        return mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    // Writes value as two digits into buffer, starting at offset
+    private void writeTwoDigits(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) (mZeroDigit + value / 10);
+        buffer[offset + 1] = (char) (mZeroDigit + value % 10);
+    }
+
+    void draw(Canvas canvas, Rect bounds, long now) {
+        int day = getDay(now);
+        if (day != mDay) {
+            mDay = day;
+            mDate = mDateFormat.format(mCalendar.getTime()).toUpperCase();
+            mLayerValid = false;
+        }
+        // Drop the temperatures and icon once they are from a day that is not today.
+        if (mWeatherDay != NO_DAY && mWeatherDay != mDay) {
+            clearWeather();
+        }
+
+        // The surface size normally comes first, but follow the bounds if they differ
+        if (null == mLayout || !mLayout.fits(bounds.width(), bounds.height(), mIsRound)) {
+            updateLayout(bounds.width(), bounds.height());
+        }
+        WatchFaceLayout layout = mLayout;
+
+        if (null == mLayer
+                || mLayer.getWidth() != layout.width || mLayer.getHeight() != layout.height) {
+            if (null != mLayer) {
+                mLayer.recycle();
+            }
+            mLayer = Bitmap.createBitmap(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+            mLayerCanvas = new Canvas(mLayer);
+            mLayerValid = false;
+        }
+        if (!mLayerValid) {
+            drawLayer(mLayerCanvas, layout);
+            mLayerValid = true;
+        }
+        canvas.drawBitmap(mLayer, bounds.left, bounds.top, null);
+
+        // Draw HH:MM over the layer.  Calendar.HOUR runs 0-11, and "hh" shows 0 as 12.
+        float timeX = bounds.left + layout.timeX;
+        float timeY = bounds.top + layout.timeY;
+        int hour = mCalendar.get(Calendar.HOUR);
+        writeTwoDigits(mHours, 0, hour == 0 ? 12 : hour);
+        canvas.drawText(mHours, 0, mHours.length, timeX, timeY, mHoursPaint);
+
+        writeTwoDigits(mMinutes, 1, mCalendar.get(Calendar.MINUTE));
+        canvas.drawText(mMinutes, 0, mMinutes.length, timeX, timeY, mMinutesPaint);
+    }
+
+    // Draws everything but the time
+    private void drawLayer(Canvas canvas, WatchFaceLayout layout) {
+        // Draw the background.
+        if (mAmbient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawRect(0, 0, layout.width, layout.height, mBackgroundPaint);
+        }
+
+        // The date shows in both interactive and ambient mode.
+        canvas.drawText(mDate, layout.dateX, layout.dateY, mDatePaint);
+
+        // Draw weather data if in interactive mode
+        if (!mAmbient) {
+            canvas.drawLine(layout.ruleStartX, layout.ruleY, layout.ruleEndX, layout.ruleY,
+                    mHorizontalRulePaint);
+
+            if (mWeatherIcon != null) {
+                canvas.drawBitmap(mWeatherIcon, layout.iconX, layout.iconY, mWeatherIconPaint);
+            }
+
+            canvas.drawText(mHighTemp, layout.highTempX, layout.highTempY, mHighTempPaint);
+            canvas.drawText(mLowTemp, layout.lowTempX, layout.lowTempY, mLowTempPaint);
+        }
+    }
+
+    /**
+     * Frees the layer.  The next frame draws a new one.
+     */
+    void release() {
+        if (null != mLayer) {
+            mLayer.recycle();
+            mLayer = null;
+            mLayerCanvas = null;
+        }
+    }
+}
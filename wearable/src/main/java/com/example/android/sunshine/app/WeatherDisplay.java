@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * Turns the weather the phone sends into what the watch face shows.
+ * <p>
+ * The phone sends the OpenWeatherMap condition id and the temperatures in Celsius, not a picture
+ * and text, so a sync costs it no image work and costs the Bluetooth link a few dozen bytes.  The
+ * watch has its own copy of the art, already at the size it is drawn at, and formats the
+ * temperatures in the units the phone is set to.
+ */
+final class WeatherDisplay {
+
+    static final int NO_ART = -1;
+
+    private WeatherDisplay() {
+    }
+
+    /**
+     * The same mapping as the phone app's art, based on weather code data found at:
+     * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+     *
+     * @return the art drawable for {@code weatherId}, or {@link #NO_ART} if there is none
+     */
+    static int getArtResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return NO_ART;
+    }
+
+    /**
+     * @param format  the format_temperature string, taking the temperature as a float
+     * @param celsius the temperature as the phone stores it
+     * @param metric  true to show it in Celsius, false for Fahrenheit
+     */
+    static String formatTemperature(Locale locale, String format, double celsius,
+                                    boolean metric) {
+        double temperature = metric ? celsius : celsius * 1.8 + 32;
+        return String.format(locale, format, temperature);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestWatchFaceLayout {
+
+    private static final float DELTA = 0.001f;
+    // Roughly how wide "-88 degrees" is at the round temperature text size
+    private static final float LOW_TEMP_WIDTH = 60;
+    // Screen sizes of shipping watches, in pixels
+    private static final int[] SIZES = {280, 290, 320, 360, 400, 454};
+
+    @Test
+    public void squareKeepsTheOriginalPositions() {
+        WatchFaceLayout layout = new WatchFaceLayout(320, 320, false, LOW_TEMP_WIDTH);
+        assertEquals(160, layout.timeX, DELTA);
+        assertEquals(128, layout.timeY, DELTA);
+        assertEquals(160, layout.dateX, DELTA);
+        assertEquals(320f / 11 * 6, layout.dateY, DELTA);
+        assertEquals(320f / 6 * 2, layout.ruleStartX, DELTA);
+        assertEquals(320f / 6 * 4, layout.ruleEndX, DELTA);
+        assertEquals(192, layout.ruleY, DELTA);
+        assertEquals(32, layout.iconX, DELTA);
+        assertEquals(192, layout.iconY, DELTA);
+        assertEquals(160, layout.highTempX, DELTA);
+        assertEquals(256, layout.highTempY, DELTA);
+        assertEquals(320f / 9 * 7, layout.lowTempX, DELTA);
+        assertEquals(256, layout.lowTempY, DELTA);
+    }
+
+    @Test
+    public void roundKeepsTheWeatherInsideTheCircle() {
+        for (int size : SIZES) {
+            WatchFaceLayout layout = new WatchFaceLayout(size, size, true, LOW_TEMP_WIDTH);
+            float iconBottom = layout.iconY + WatchFaceLayout.WEATHER_ICON_SIZE;
+            assertTrue("Error: Icon cut off at " + size,
+                    isInCircle(size, layout.iconX, iconBottom));
+            assertTrue("Error: Low temperature cut off at " + size,
+                    isInCircle(size, layout.lowTempX + LOW_TEMP_WIDTH / 2, layout.lowTempY));
+            // Only the weather row moves
+            WatchFaceLayout square = new WatchFaceLayout(size, size, false, LOW_TEMP_WIDTH);
+            assertEquals(square.timeY, layout.timeY, DELTA);
+            assertEquals(square.dateY, layout.dateY, DELTA);
+            assertEquals(square.highTempX, layout.highTempX, DELTA);
+        }
+    }
+
+    @Test
+    public void everythingIsOnScreen() {
+        for (int size : SIZES) {
+            for (boolean isRound : new boolean[]{false, true}) {
+                WatchFaceLayout layout = new WatchFaceLayout(size, size, isRound, LOW_TEMP_WIDTH);
+                assertTrue(layout.iconX >= 0);
+                assertTrue(layout.iconY + WatchFaceLayout.WEATHER_ICON_SIZE <= size);
+                assertTrue(layout.lowTempX + LOW_TEMP_WIDTH / 2 <= size);
+                assertTrue(layout.ruleStartX < layout.ruleEndX);
+                assertTrue(layout.timeY < layout.dateY);
+                assertTrue(layout.dateY < layout.highTempY);
+            }
+        }
+    }
+
+    @Test
+    public void circleEdge() {
+        WatchFaceLayout layout = new WatchFaceLayout(320, 320, true, LOW_TEMP_WIDTH);
+        assertEquals(0, layout.getCircleLeft(160), DELTA);
+        assertEquals(160, layout.getCircleLeft(0), DELTA);
+        assertEquals(160, layout.getCircleLeft(-10), DELTA);
+    }
+
+    @Test
+    public void fitsOnlyItsOwnScreen() {
+        WatchFaceLayout layout = new WatchFaceLayout(320, 320, true, LOW_TEMP_WIDTH);
+        assertTrue(layout.fits(320, 320, true));
+        assertFalse(layout.fits(320, 320, false));
+        assertFalse(layout.fits(320, 290, true));
+    }
+
+    private static boolean isInCircle(int size, float x, float y) {
+        float radius = size / 2f;
+        float dx = x - radius;
+        float dy = y - radius;
+        return dx * dx + dy * dy <= radius * radius + DELTA;
+    }
+}
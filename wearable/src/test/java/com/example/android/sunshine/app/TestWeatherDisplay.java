@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestWeatherDisplay {
+
+    private static final String FORMAT = "%1.0f\u00B0";
+
+    @Test
+    public void artMatchesThePhone() {
+        assertEquals(R.drawable.art_storm, WeatherDisplay.getArtResource(211));
+        assertEquals(R.drawable.art_light_rain, WeatherDisplay.getArtResource(300));
+        assertEquals(R.drawable.art_rain, WeatherDisplay.getArtResource(502));
+        assertEquals(R.drawable.art_snow, WeatherDisplay.getArtResource(511));
+        assertEquals(R.drawable.art_rain, WeatherDisplay.getArtResource(521));
+        assertEquals(R.drawable.art_snow, WeatherDisplay.getArtResource(601));
+        assertEquals(R.drawable.art_fog, WeatherDisplay.getArtResource(761));
+        assertEquals(R.drawable.art_storm, WeatherDisplay.getArtResource(781));
+        assertEquals(R.drawable.art_clear, WeatherDisplay.getArtResource(800));
+        assertEquals(R.drawable.art_light_clouds, WeatherDisplay.getArtResource(801));
+        assertEquals(R.drawable.art_clouds, WeatherDisplay.getArtResource(804));
+    }
+
+    @Test
+    public void unknownConditionsHaveNoArt() {
+        for (int id : new int[]{-1, 0, 199, 505, 762, 771, 900, 1000}) {
+            assertEquals("Error: Art for " + id, WeatherDisplay.NO_ART,
+                    WeatherDisplay.getArtResource(id));
+        }
+    }
+
+    @Test
+    public void temperaturesFollowTheUnits() {
+        assertEquals("25\u00B0", WeatherDisplay.formatTemperature(Locale.US, FORMAT, 24.6, true));
+        assertEquals("-3\u00B0", WeatherDisplay.formatTemperature(Locale.US, FORMAT, -3.2, true));
+        assertEquals("77\u00B0", WeatherDisplay.formatTemperature(Locale.US, FORMAT, 25, false));
+        assertEquals("32\u00B0", WeatherDisplay.formatTemperature(Locale.US, FORMAT, 0, false));
+    }
+}